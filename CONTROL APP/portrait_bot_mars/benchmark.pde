@@ -0,0 +1,64 @@
+////////////////////////////////////////////////////////////////////////////////
+// BENCHMARK
+////////////////////////////////////////////////////////////////////////////////
+// Streams the same workload once per baud rate to show where the link and
+// the per-line overhead limit short-segment drawings. Each run reports,
+// from job start to the last ack, the effective bytes/s and lines/s, how
+// much of the link's raw byte rate that uses, the ack latency percentiles
+// and how long the planner sat starved. Every run starts with the spray
+// feed rate, as START does. A run with any error reply is reported as
+// invalid instead, its timings would be those of the errors, not motion.
+//
+//   portrait_bot_mars --run --bench 115200,230400,250000 <port> <file>
+//
+// GRBL has to be flashed with each baud rate tried, a port that does not
+// answer with its banner is skipped. The simulator ("sim", speed 1) runs
+// its link and motion in real time and needs no flashing, e.g. with
+// "TEST FILES/GCODE/g_test_00.txt".
+
+int runBenchmark( String port, int[] bauds, File f ){
+  initVariables();
+  MachineSession m = session;
+  if( !loadHeadless( f ) ){
+    println("NOTHING TO STREAM IN " + f.getPath());
+    return 1;
+  }
+  StringList rows = new StringList();
+  int failed = 0;
+  for( int baud : bauds ){
+    m.portname = portBase( port ) + "@" + baud;
+    println("BENCH: " + m.job.size() + " LINES AT " + baud + " BAUD ON " + portBase( port ));
+    if( !watcher.open( m ) || m.engine.banner == null ){
+      println("NO GRBL AT " + baud + " BAUD, SKIPPED");
+      m.engine.detach();
+      rows.append( String.format( "%7d  no answer", baud ) );
+      failed++;
+      continue;
+    }
+    m.connected = true;
+    if( !streamHeadless( m ) || m.engine.errors > 0 ) failed++;
+    rows.append( benchRow( baud, m.engine ) );
+    m.connected = false;
+    m.engine.detach();
+  }
+
+  println("   BAUD    BYTES/s  LINK   LINES/s  ACK P50    P95    P99 ms  STARVED s (n)");
+  for( String r : rows ) println( r );
+  m.engine.halt();
+  return (failed == 0) ? 0 : 1;
+}
+
+// ONE TABLE ROW FROM THE LAST FINISHED JOB
+// Link use is against baud/10 bytes/s (8N1: 10 bits per byte)
+String benchRow( int baud, StreamEngine e ){
+  synchronized( e ){
+    if( e.errors > 0 ) return String.format( "%7d  invalid, %d errors (%s)", baud, e.errors, e.lastError );
+    if( e.streamNanos <= 0 ) return String.format( "%7d  incomplete", baud );
+    double secs = e.streamNanos / 1000000000.0;
+    double bytes = e.bytesSent / secs;
+    return String.format( "%7d  %9.0f  %3.0f%%  %8.1f  %7.1f %6.1f %6.1f     %7.1f (%d)",
+      baud, bytes, 100 * bytes / (baud / 10.0), e.job.size() / secs,
+      e.ackLatency.percentile(50), e.ackLatency.percentile(95), e.ackLatency.percentile(99),
+      e.planner.starvedNanos / 1000000000.0, e.planner.starvations );
+  }
+}
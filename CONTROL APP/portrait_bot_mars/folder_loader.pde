@@ -0,0 +1,143 @@
+////////////////////////////////////////////////////////////////////////////////
+// FOLDER LOADER
+////////////////////////////////////////////////////////////////////////////////
+// Loads a folder of drawings without holding up the window. The load runs
+// on its own thread, every drawing is parsed as a separate task on a
+// fork-join pool, and the parts are joined in file name order with the
+// same spray off and home lines a sequential load puts around them. The
+// session counts files as they finish so the UI can show progress, and
+// the job and preview are only swapped in once they are complete.
+
+// PARSES FOLDER FILES, one worker per core
+java.util.concurrent.ForkJoinPool folderPool = new java.util.concurrent.ForkJoinPool();
+
+// LOAD FOLDER IN THE BACKGROUND
+void loadFolderAsync( final MachineSession m, final File f, final boolean gcode ){
+  if( m.loading ){
+    print("STILL LOADING\n");
+    return;
+  }
+  m.loading = true;
+  m.filesTotal = 0;
+  new Thread( new Runnable(){
+    public void run(){
+      try{
+        if( loadFolderJob( m, f, gcode ) ) folderLoaded( m );
+      } finally {
+        m.loading = false;
+      }
+    }
+  }, "folder-" + m.name ).start();
+}
+
+// PREVIEW AND SAVE A LOADED FOLDER
+void folderLoaded( MachineSession m ){
+  m.preview = generatePreview( m.model );
+  print("GCODE PREVIEW GENERATED\n");
+  saveStrings( "data/gcode.txt", m.model.toStrings() );
+}
+
+// PARSE FILES ENDING IN ext AND JOIN THEM
+// Sorted by name, directory listings come in no fixed order.
+// Sets the session's source map, returns the joined job
+JobModel ingestFolder( MachineSession m, String dir, String[] files, String ext ){
+  String[] f = files.clone();
+  java.util.Arrays.sort( f );
+  ArrayList<FolderPart> parts = new ArrayList<FolderPart>();
+  for( int i = 0; i < f.length; i++ ){
+    if( fileCheck(f[i], ext) ) parts.add( new FolderPart( m, dir, f[i], ext.equals("txt") ) );
+  }
+  m.filesLoaded.set(0);
+  m.filesTotal = parts.size();
+  folderPool.invokeAll( parts );
+
+  int size = 4;
+  for( FolderPart p : parts ) if( p.model != null ) size += p.model.size();
+  JobModel g = new JobModel( size );
+  SourceMap sources = new SourceMap();
+  g.add( gSpray(false) );
+  g.add( home() );
+  for( FolderPart p : parts ){
+    if( p.model == null ) continue;
+    int src = sources.addFile( p.name );
+    int at = g.size();
+    g.append( p.model );
+    for( int k = 0; k < p.lines.size(); k++ ){
+      if( p.lines.get(k) >= 0 ) sources.set( at+k, src, p.lines.get(k) );
+    }
+  }
+  g.add( gSpray(false) );
+  g.add( home() );
+  m.sources = sources;
+  return g;
+}
+
+// ONE FILE OF A FOLDER
+// Parsed into its own model, closed with spray off. lines holds the file
+// line of every model line, 0 for the file as a whole, -1 for generated
+// lines. model stays null if the file cannot be read.
+class FolderPart implements java.util.concurrent.Callable<FolderPart> {
+  MachineSession owner;
+  String dir;
+  String name;
+  boolean gcode;
+  JobModel model;
+  IntList lines;
+
+  FolderPart( MachineSession m, String dir, String name, boolean gcode ){
+    owner = m;
+    this.dir = dir;
+    this.name = name;
+    this.gcode = gcode;
+  }
+
+  public FolderPart call(){
+    String path = new File( dir, name ).getPath();
+    JobModel g = new JobModel();
+    lines = new IntList();
+    try{
+      if( (gcode) ? parseGcode( path, g ) : parseJson( path, g ) ){
+        add( g, gSpray(false), -1 );
+        model = g;
+      }
+    } catch( RuntimeException e ){
+      print("ERROR - CANNOT LOAD " + path + ": " + e + "\n");
+    }
+    owner.filesLoaded.incrementAndGet();
+    return this;
+  }
+
+  boolean parseGcode( String path, JobModel g ){
+    MappedGcode load = new MappedGcode();
+    GcodeLine ln = new GcodeLine();
+    if( !load.open( path ) ) return false;
+    for(int k = 0; k < load.size(); k++){
+      load.line( k, ln );
+      //ignore home commands at beginning & end of file
+      if( k <= 3 && ln.contains("G0X0Y0")) continue;
+      if( ln.length() < 1 ) continue;
+      if( k >= load.size()-3 && ln.contains("G0X0Y0")) continue;
+      add( g, ln, k+1 );
+    }
+    return true;
+  }
+
+  boolean parseJson( String path, JobModel g ){
+    JSONArray coords = loadJSONArray( path );
+    PVector p = extractPos( coords.getFloat(0), -coords.getFloat(1) );
+    add( g, gSpray(false), -1 );
+    add( g, gLine( p.x, p.y, false ), -1 );
+    add( g, gDwell(0.5), -1 );
+    add( g, gSpray(true), -1 );
+    for( int k = 2; k < coords.size(); k+=2 ){
+      p = extractPos( coords.getFloat(k),-coords.getFloat(k+1) );
+      add( g, gLine(p.x, p.y, true), 0 );
+    }
+    return true;
+  }
+
+  void add( JobModel g, CharSequence s, int lineNo ){
+    g.add( s );
+    lines.append( lineNo );
+  }
+}
@@ -0,0 +1,209 @@
+////////////////////////////////////////////////////////////////////////////////
+// ENCODED JOB
+////////////////////////////////////////////////////////////////////////////////
+// GCODE job encoded once at load time into one contiguous ASCII buffer.
+// Line i lives in data[offsets[i] .. offsets[i+1]), already trimmed, with
+// spaces removed and terminated by '\n'. Blank lines have zero length, so
+// line indices stay aligned with the loaded job.
+
+class EncodedJob implements JobSource {
+  byte[] data;
+  int[] offsets;
+  int lines;
+  SourceMap sources;
+
+  EncodedJob(){
+    data = new byte[0];
+    offsets = new int[1];
+    lines = 0;
+    sources = new SourceMap();
+  }
+
+  EncodedJob( StringList g ){
+    this( g, new SourceMap() );
+  }
+
+  EncodedJob( StringList g, SourceMap s ){
+    sources = s;
+    lines = g.size();
+    offsets = new int[lines+1];
+    // First pass: measure encoded lines
+    int size = 0;
+    for( int i = 0; i < lines; i++ ){
+      offsets[i] = size;
+      size += encodedLength( g.get(i) );
+    }
+    offsets[lines] = size;
+    // Second pass: encode
+    data = new byte[size];
+    for( int i = 0; i < lines; i++ ){
+      encode( g.get(i), offsets[i] );
+    }
+  }
+
+  // ENCODE A JOB MODEL
+  // Lines are written straight from the model, no String per line
+  EncodedJob( JobModel m, SourceMap s ){
+    sources = s;
+    lines = m.size();
+    offsets = new int[lines+1];
+    data = new byte[max(lines * 24, 64)];
+    byte[] line = new byte[m.maxLength];
+    int size = 0;
+    for( int i = 0; i < lines; i++ ){
+      offsets[i] = size;
+      int n = m.write( i, line, 0 );
+      if( data.length - size < n+1 ) data = java.util.Arrays.copyOf( data, max(data.length * 2, size + n+1) );
+      size = encode( line, n, size );
+    }
+    offsets[lines] = size;
+    data = java.util.Arrays.copyOf( data, size );
+  }
+
+  public int size(){
+    return lines;
+  }
+
+  public boolean ready( int i ){
+    return i >= 0 && i < lines;
+  }
+
+  public int total(){
+    return lines;
+  }
+
+  // BYTE RANGE OF LINE i (INCLUDING '\n')
+  int start( int i ){
+    return offsets[i];
+  }
+
+  public int length( int i ){
+    return offsets[i+1] - offsets[i];
+  }
+
+  public boolean isBlank( int i ){
+    return offsets[i+1] == offsets[i];
+  }
+
+  public byte first( int i ){
+    return data[offsets[i]];
+  }
+
+  public int copy( int i, byte[] out, int at ){
+    System.arraycopy( data, offsets[i], out, at, length(i) );
+    return length(i);
+  }
+
+  // LINE i AS TEXT (WITHOUT '\n')
+  // Only used for display and error messages, never on the stream path
+  public String text( int i ){
+    if( i < 0 || i >= lines || isBlank(i) ) return "";
+    return new String( data, offsets[i], length(i)-1, java.nio.charset.StandardCharsets.US_ASCII );
+  }
+
+  // SOURCE FILE AND LINE OF LINE i
+  public String where( int i ){
+    return sources.describe(i);
+  }
+
+  public float fraction( int i ){
+    return (lines > 0) ? constrain( (float) i / lines, 0, 1 ) : 0;
+  }
+
+  // Every line stays in memory
+  public void release( int i ){
+  }
+
+  public long checksum(){
+    CRC32 c = new CRC32();
+    c.update( data, 0, data.length );
+    return c.getValue();
+  }
+
+  // ENCODED LENGTH OF A LINE
+  // Matches cmd.trim().replace(" ","") + "\n", or 0 for a blank line
+  int encodedLength( String s ){
+    int a = trimStart(s);
+    int b = trimEnd(s);
+    int n = 0;
+    for( int k = a; k < b; k++ ){
+      if( s.charAt(k) != ' ' ) n++;
+    }
+    return (n > 0) ? n+1 : 0;
+  }
+
+  void encode( String s, int at ){
+    int a = trimStart(s);
+    int b = trimEnd(s);
+    int n = at;
+    for( int k = a; k < b; k++ ){
+      char c = s.charAt(k);
+      if( c == ' ' ) continue;
+      data[n++] = (c < 128) ? (byte) c : (byte) '?';
+    }
+    if( n > at ) data[n] = '\n';
+  }
+
+  // ENCODE ASCII LINE b[0 .. len) AT at, returns the end
+  int encode( byte[] b, int len, int at ){
+    int a = 0;
+    while( a < len && b[a] <= ' ' ) a++;
+    while( len > a && b[len-1] <= ' ' ) len--;
+    int n = at;
+    for( int k = a; k < len; k++ ){
+      if( b[k] != ' ' ) data[n++] = b[k];
+    }
+    if( n > at ) data[n++] = '\n';
+    return n;
+  }
+
+  int trimStart( String s ){
+    int a = 0;
+    while( a < s.length() && s.charAt(a) <= ' ' ) a++;
+    return a;
+  }
+
+  int trimEnd( String s ){
+    int b = s.length();
+    while( b > 0 && s.charAt(b-1) <= ' ' ) b--;
+    return b;
+  }
+}
+
+// SOURCE MAP
+// Remembers which file and file line each job line was loaded from, so
+// errors can be reported against the drawing rather than the merged job.
+// Lines added by the loader itself (homing, spray off) have no source.
+class SourceMap {
+  StringList files;
+  IntList fileOf;
+  IntList lineOf;
+
+  SourceMap(){
+    files = new StringList();
+    fileOf = new IntList();
+    lineOf = new IntList();
+  }
+
+  // START A NEW SOURCE FILE, returns its index
+  int addFile( String name ){
+    files.append( name );
+    return files.size()-1;
+  }
+
+  // JOB LINE index CAME FROM LINE lineNo (1-based) OF FILE file
+  void set( int index, int file, int lineNo ){
+    while( fileOf.size() <= index ){
+      fileOf.append(-1);
+      lineOf.append(0);
+    }
+    fileOf.set( index, file );
+    lineOf.set( index, lineNo );
+  }
+
+  String describe( int index ){
+    if( index < 0 || index >= fileOf.size() || fileOf.get(index) < 0 ) return "generated";
+    String name = files.get( fileOf.get(index) );
+    return (lineOf.get(index) > 0) ? name + ":" + lineOf.get(index) : name;
+  }
+}
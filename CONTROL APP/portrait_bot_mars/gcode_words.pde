@@ -0,0 +1,102 @@
+////////////////////////////////////////////////////////////////////////////////
+// GCODE WORDS
+////////////////////////////////////////////////////////////////////////////////
+// Single-pass G-code line tokenizer. parse() walks a line once and fills a
+// reusable table of word values by letter, so looking up G, X, Y, I and J
+// afterwards is an array read. Letters may be lowercase, spaces are allowed
+// between a letter and its number, and (comments) and ; comments are
+// skipped. A letter that appears more than once keeps its first value.
+// Nothing is allocated per line.
+
+// POWERS OF TEN FOR THE DECIMAL PARSER
+static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18 };
+
+class GcodeWords {
+  float[] values; // by letter, A = 0
+  int found; // bit per letter that has a value
+  int cursor;
+
+  GcodeWords(){
+    values = new float[26];
+  }
+
+  // TOKENIZE LINE, returns this
+  GcodeWords parse( String s ){
+    found = 0;
+    int n = s.length();
+    int i = 0;
+    while( i < n ){
+      char c = s.charAt(i);
+      if( c == ';' ) break;
+      if( c == '(' ){
+        i = s.indexOf( ')', i );
+        if( i < 0 ) break;
+        i++;
+        continue;
+      }
+      c = Character.toUpperCase( c );
+      if( c < 'A' || c > 'Z' ){
+        i++;
+        continue;
+      }
+      float v = number( s, i+1, n );
+      i = cursor;
+      int k = c - 'A';
+      if( !Float.isNaN(v) && (found & (1 << k)) == 0 ){
+        values[k] = v;
+        found |= 1 << k;
+      }
+    }
+    return this;
+  }
+
+  boolean has( char c ){
+    return (found & (1 << (Character.toUpperCase(c) - 'A'))) != 0;
+  }
+
+  // VALUE OF LETTER c, fallback if the line has no such word
+  float get( char c, float fallback ){
+    int k = Character.toUpperCase(c) - 'A';
+    return ((found & (1 << k)) != 0) ? values[k] : fallback;
+  }
+
+  // PARSE DECIMAL AT s[i ..]
+  // Leaves cursor after it, NaN if there are no digits. Up to 18
+  // significant digits are kept, further decimals are dropped.
+  float number( CharSequence s, int i, int n ){
+    while( i < n && s.charAt(i) == ' ' ) i++;
+    boolean neg = false;
+    if( i < n && (s.charAt(i) == '-' || s.charAt(i) == '+') ){
+      neg = s.charAt(i) == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int seen = 0; // digits read
+    int kept = 0; // significant digits in mantissa
+    int decimals = 0;
+    int dropped = 0; // whole-number digits beyond the 18th
+    boolean point = false;
+    for( ; i < n; i++ ){
+      char c = s.charAt(i);
+      if( c >= '0' && c <= '9' ){
+        seen++;
+        if( kept < 18 && decimals < 18 ){
+          mantissa = mantissa*10 + (c - '0');
+          if( mantissa > 0 ) kept++;
+          if( point ) decimals++;
+        } else if( !point ){
+          dropped++;
+        }
+      } else if( c == '.' && !point ){
+        point = true;
+      } else {
+        break;
+      }
+    }
+    cursor = i;
+    if( seen == 0 ) return Float.NaN;
+    double v = mantissa / POW10[decimals];
+    if( dropped > 0 ) v *= Math.pow( 10, dropped );
+    return (float) ((neg) ? -v : v);
+  }
+}
@@ -0,0 +1,99 @@
+////////////////////////////////////////////////////////////////////////////////
+// GRBL RESPONSE CLASSIFIER
+////////////////////////////////////////////////////////////////////////////////
+// Classifies raw response lines from GRBL straight from the received bytes,
+// without building Strings or running regexes.
+
+// RESPONSE TYPES
+static final int RESP_NONE = 0;
+static final int RESP_OK = 1;
+static final int RESP_ERROR = 2;
+static final int RESP_ALARM = 3;
+static final int RESP_STATUS = 4;
+static final int RESP_MSG = 5;
+static final int RESP_FEEDBACK = 6;
+static final int RESP_VERSION = 7;
+static final int RESP_STARTUP = 8;
+static final int RESP_OTHER = 9;
+
+// CLASSIFIED RESPONSE
+// Reusable result, valid until the next call to classify()
+class GrblResponse {
+  int type;
+  int code; // error:N / ALARM:N code, -1 otherwise
+  byte[] buf;
+  int start, end; // trimmed line bytes in buf
+
+  GrblResponse(){
+    type = RESP_NONE;
+    code = -1;
+  }
+
+  int length(){
+    return end - start;
+  }
+
+  // LINE AS TEXT
+  // Only for display and logging
+  String text(){
+    return new String( buf, start, end-start, java.nio.charset.StandardCharsets.US_ASCII );
+  }
+}
+
+// CLASSIFY RESPONSE LINE
+// Fills r with the type of the line in b[off .. off+len)
+void classify( byte[] b, int off, int len, GrblResponse r ){
+  int s = off;
+  int e = off + len;
+  while( s < e && b[s] <= ' ' ) s++;
+  while( e > s && b[e-1] <= ' ' ) e--;
+  r.buf = b;
+  r.start = s;
+  r.end = e;
+  r.code = -1;
+  int n = e - s;
+
+  if( n == 0 ){
+    r.type = RESP_NONE;
+  } else if( n == 2 && b[s] == 'o' && b[s+1] == 'k' ){
+    r.type = RESP_OK;
+  } else if( b[s] == '<' && b[e-1] == '>' ){
+    r.type = RESP_STATUS;
+  } else if( startsWith(b, s, e, "error:") ){
+    r.type = RESP_ERROR;
+    r.code = parseCode(b, s+6, e);
+  } else if( startsWith(b, s, e, "ALARM:") ){
+    r.type = RESP_ALARM;
+    r.code = parseCode(b, s+6, e);
+  } else if( b[s] == '[' ){
+    r.type = startsWith(b, s, e, "[MSG:") ? RESP_MSG : RESP_FEEDBACK;
+  } else if( startsWith(b, s, e, "Grbl ") ){
+    r.type = RESP_VERSION;
+  } else if( b[s] == '>' && n >= 4 && b[e-3] == ':' && b[e-2] == 'o' && b[e-1] == 'k' ){
+    r.type = RESP_STARTUP;
+  } else {
+    r.type = RESP_OTHER;
+  }
+}
+
+// CHECK ASCII PREFIX
+boolean startsWith( byte[] b, int s, int e, String prefix ){
+  if( e - s < prefix.length() ) return false;
+  for( int i = 0; i < prefix.length(); i++ ){
+    if( b[s+i] != prefix.charAt(i) ) return false;
+  }
+  return true;
+}
+
+// PARSE UNSIGNED RESPONSE CODE
+int parseCode( byte[] b, int s, int e ){
+  int v = 0;
+  int digits = 0;
+  for( int i = s; i < e; i++ ){
+    int d = b[i] - '0';
+    if( d < 0 || d > 9 ) break;
+    v = v*10 + d;
+    digits++;
+  }
+  return (digits > 0) ? v : -1;
+}
@@ -0,0 +1,644 @@
+////////////////////////////////////////////////////////////////////////////////
+// GRBL SIMULATOR
+////////////////////////////////////////////////////////////////////////////////
+// Virtual GRBL 1.1 that runs in-process on the device end of a loopback
+// transport, so the app can stream to it exactly like the robot. It models
+// the 128 byte RX buffer and serial baud rate, the 16 block planner with
+// junction deviation look-ahead, trapezoidal motion from the $110/$120
+// settings, ok / error:N acks, status reports in the $10=2 format, and the
+// realtime bytes. Time runs `speed` times faster than the wall clock.
+//
+// Connect with port name "sim" or "sim:<speed>", e.g. "sim:100". The link
+// runs at BAUD_RATE or at the port name's @<baud>, e.g. "sim:100@250000".
+// Baud time is simulated time too, so compare baud rates at speed 1.
+//
+// Approximations: arcs are one block with a centripetal speed limit, a
+// block's exit speed is fixed when it starts executing, and a feed hold
+// stops motion in place.
+
+GrblSimulator simulator; // last simulator created, for its summary
+
+// CREATE SIMULATED MACHINE
+// Returns the host end of a loopback pair, the simulator owns the other end
+Transport createSimulator( float speed, int baud ){
+  LoopbackTransport host = new LoopbackTransport();
+  GrblSimulator sim = new GrblSimulator( host.peer(), speed );
+  sim.baud = baud;
+  simulator = sim;
+  sim.start();
+  return host;
+}
+
+// PLANNED MOTION BLOCK
+class SimBlock {
+  float x, y; // target, machine coordinates
+  float dx, dy; // unit vector
+  double length; // mm
+  double nominal; // mm/s
+  double maxEntry; // mm/s, junction limit
+  double entry, exit; // mm/s
+  double dwell; // s, for G4
+  int lineNumber;
+  boolean rapid;
+  boolean spraying;
+  // EXECUTION PROFILE
+  double tAccel, tCruise, tDecel, vPeak;
+  float startX, startY;
+
+  double duration(){
+    return (dwell > 0) ? dwell : tAccel + tCruise + tDecel;
+  }
+
+  // DISTANCE TRAVELLED t SECONDS INTO THE BLOCK
+  double distanceAt( double t, double accel ){
+    if( t <= tAccel ) return entry*t + 0.5*accel*t*t;
+    double s = entry*tAccel + 0.5*accel*tAccel*tAccel;
+    t -= tAccel;
+    if( t <= tCruise ) return s + vPeak*t;
+    s += vPeak*tCruise;
+    t = Math.min( t - tCruise, tDecel );
+    return s + vPeak*t - 0.5*accel*t*t;
+  }
+
+  double speedAt( double t, double accel ){
+    if( dwell > 0 ) return 0;
+    if( t <= tAccel ) return entry + accel*t;
+    if( t <= tAccel + tCruise ) return vPeak;
+    return Math.max( exit, vPeak - accel*(t - tAccel - tCruise) );
+  }
+}
+
+class GrblSimulator implements Runnable {
+  Transport dev;
+  float speed;
+  Thread thread;
+  volatile boolean running;
+  // SETTINGS ($n=value)
+  float[] settings;
+  int baud;
+  double lineCost; // s to parse one line
+  // SERIAL
+  byte[] rxBuf;
+  int rxHead, rxCount;
+  double rxBudget;
+  byte[] inbound;
+  int overflows;
+  // PLANNER
+  SimBlock[] planner;
+  int plHead, plCount;
+  SimBlock current;
+  double blockTime;
+  double busyUntil;
+  // STATE
+  int state;
+  int substate;
+  double holdUntil;
+  boolean alarm;
+  float mx, my; // machine position
+  float wcoX, wcoY;
+  float lastDx, lastDy;
+  boolean absolute;
+  int motion;
+  float feed;
+  int spindle;
+  int lineNumber;
+  int ovFeed, ovRapid, ovSpindle;
+  boolean ovChanged;
+  int reportCount;
+  // STATISTICS
+  double clock; // simulated seconds since start
+  double busyTime; // simulated seconds spent in motion
+  double distance;
+  int lines, errors;
+
+  GrblSimulator( Transport dev, float speed ){
+    this.dev = dev;
+    this.speed = speed;
+    settings = new float[133];
+    settings[10] = 2;
+    settings[11] = 0.010;
+    settings[12] = 0.002;
+    settings[30] = 1000;
+    settings[100] = 26.667;
+    settings[101] = 26.667;
+    settings[110] = 10000;
+    settings[111] = 10000;
+    settings[120] = 250;
+    settings[121] = 250;
+    baud = 115200;
+    lineCost = 0.0015;
+    rxBuf = new byte[RX_BUFFER_SIZE];
+    inbound = new byte[64];
+    planner = new SimBlock[BLOCK_BUFFER_SIZE];
+    for( int i = 0; i < planner.length; i++ ) planner[i] = new SimBlock();
+    current = null;
+    reset();
+  }
+
+  void start(){
+    dev.open();
+    running = true;
+    thread = new Thread( this, "grbl-simulator" );
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  void halt(){
+    running = false;
+    dev.close();
+  }
+
+  public void run(){
+    banner();
+    long last = System.nanoTime();
+    while( running && dev.isOpen() ){
+      long now = System.nanoTime();
+      step( (now - last) / 1e9 * speed );
+      last = now;
+      java.util.concurrent.locks.LockSupport.parkNanos( 100000 );
+    }
+  }
+
+  // SOFT RESET
+  void reset(){
+    rxHead = rxCount = 0;
+    plHead = plCount = 0;
+    current = null;
+    state = STATE_IDLE;
+    substate = -1;
+    absolute = true;
+    motion = 0;
+    feed = 0;
+    spindle = 0;
+    lineNumber = 0;
+    ovFeed = ovRapid = ovSpindle = 100;
+    lastDx = lastDy = 0;
+  }
+
+  void banner(){
+    reply( "\r\nGrbl 1.1f ['$' for help]" );
+  }
+
+  // ADVANCE SIMULATION BY dt SECONDS
+  // In slices no longer than parsing a line, so receiving, parsing and
+  // motion interleave like they do on the controller
+  synchronized void step( double dt ){
+    while( dt > 0 ){
+      double h = Math.min( dt, lineCost );
+      dt -= h;
+      clock += h;
+      receive( h );
+      while( parseNext() ){
+      }
+      execute( h );
+    }
+  }
+
+  // SERIAL RECEIVE
+  // Bytes arrive no faster than the baud rate, realtime bytes are handled
+  // as they arrive and everything else goes into the 128 byte RX buffer.
+  // An idle line carries no budget over, the next byte starts from scratch.
+  void receive( double dt ){
+    rxBudget += dt * baud / 10.0;
+    while( rxBudget >= 1 ){
+      int want = Math.min( (int) rxBudget, inbound.length );
+      int n = dev.read( inbound, 0, want );
+      rxBudget = (n < want) ? 0 : rxBudget - n;
+      for( int i = 0; i < n; i++ ){
+        int c = inbound[i] & 0xff;
+        if( c >= 0x90 && c <= 0x9D ) ovChanged = true;
+        if( realtime(c) ) continue;
+        if( rxCount >= rxBuf.length - 1 ){
+          overflows++;
+          continue;
+        }
+        rxBuf[(rxHead + rxCount) % rxBuf.length] = (byte) c;
+        rxCount++;
+      }
+    }
+  }
+
+  // REALTIME COMMANDS
+  boolean realtime( int c ){
+    switch( c ){
+      case '?':
+        report();
+        return true;
+      case 0x18:
+        if( state == STATE_RUN || state == STATE_JOG ){
+          alarm = true;
+        }
+        reset();
+        if( alarm ){
+          state = STATE_ALARM;
+          reply( "ALARM:3" );
+        }
+        banner();
+        if( alarm ) reply( "[MSG:'$H'|'$X' to unlock]" );
+        return true;
+      case 0x21:
+        hold( STATE_HOLD );
+        return true;
+      case 0x84:
+        hold( STATE_DOOR );
+        return true;
+      case 0x7e:
+        if( state == STATE_HOLD || state == STATE_DOOR ){
+          state = (current != null) ? STATE_RUN : STATE_IDLE;
+          substate = -1;
+        }
+        return true;
+      case 0x90: ovFeed = 100; return true;
+      case 0x91: ovFeed = min( 200, ovFeed + 10 ); return true;
+      case 0x92: ovFeed = max( 10, ovFeed - 10 ); return true;
+      case 0x93: ovFeed = min( 200, ovFeed + 1 ); return true;
+      case 0x94: ovFeed = max( 10, ovFeed - 1 ); return true;
+      case 0x95: ovRapid = 100; return true;
+      case 0x96: ovRapid = 50; return true;
+      case 0x97: ovRapid = 25; return true;
+      case 0x99: ovSpindle = 100; return true;
+      case 0x9A: ovSpindle = min( 200, ovSpindle + 10 ); return true;
+      case 0x9B: ovSpindle = max( 10, ovSpindle - 10 ); return true;
+      case 0x9C: ovSpindle = min( 200, ovSpindle + 1 ); return true;
+      case 0x9D: ovSpindle = max( 10, ovSpindle - 1 ); return true;
+      default:
+        return c >= 0x80;
+    }
+  }
+
+  void hold( int s ){
+    if( state == STATE_ALARM ) return;
+    double v = (current != null) ? current.speedAt( blockTime, accel() ) : 0;
+    state = s;
+    substate = 0;
+    holdUntil = clock + v / accel();
+  }
+
+  // EXECUTE PLANNED MOTION
+  void execute( double dt ){
+    if( state == STATE_HOLD || state == STATE_DOOR ){
+      if( substate == 0 && clock >= holdUntil ) substate = 1;
+      return;
+    }
+    if( state == STATE_ALARM ) return;
+    while( dt > 0 ){
+      if( current == null ){
+        if( plCount == 0 ){
+          state = STATE_IDLE;
+          return;
+        }
+        begin();
+      }
+      state = STATE_RUN;
+      double left = current.duration() - blockTime;
+      if( dt < left ){
+        blockTime += dt;
+        busyTime += dt;
+        interpolate();
+        return;
+      }
+      dt -= left;
+      busyTime += left;
+      mx = current.x;
+      my = current.y;
+      distance += current.length;
+      current = null;
+    }
+  }
+
+  // START HEAD BLOCK
+  void begin(){
+    current = planner[plHead];
+    plHead = (plHead + 1) % planner.length;
+    plCount--;
+    blockTime = 0;
+    current.startX = mx;
+    current.startY = my;
+    current.exit = (plCount > 0) ? Math.min( planner[plHead].entry, current.nominal ) : 0;
+    if( current.dwell > 0 ) return;
+    profile( current );
+  }
+
+  // TRAPEZOID FOR ENTRY -> NOMINAL -> EXIT
+  void profile( SimBlock b ){
+    double a = accel();
+    double v = b.nominal * ((b.rapid) ? ovRapid : ovFeed) / 100.0;
+    double dAcc = (v*v - b.entry*b.entry) / (2*a);
+    double dDec = (v*v - b.exit*b.exit) / (2*a);
+    if( dAcc + dDec > b.length ){
+      // Triangle: peak where acceleration and deceleration meet
+      v = Math.sqrt( (2*a*b.length + b.entry*b.entry + b.exit*b.exit) / 2 );
+      v = Math.max( v, Math.max(b.entry, b.exit) );
+      dAcc = Math.max( 0, (v*v - b.entry*b.entry) / (2*a) );
+      dDec = Math.max( 0, b.length - dAcc );
+    }
+    b.vPeak = v;
+    b.tAccel = (v - b.entry) / a;
+    b.tDecel = (v - b.exit) / a;
+    double cruise = b.length - dAcc - dDec;
+    b.tCruise = (v > 0 && cruise > 0) ? cruise / v : 0;
+  }
+
+  void interpolate(){
+    if( current.length <= 0 ) return;
+    double s = current.distanceAt( blockTime, accel() ) / current.length;
+    mx = (float) (current.startX + (current.x - current.startX) * s);
+    my = (float) (current.startY + (current.y - current.startY) * s);
+  }
+
+  // PLANNER BLOCKS IN USE, INCLUDING THE ONE EXECUTING
+  int blocks(){
+    return plCount + ((current != null) ? 1 : 0);
+  }
+
+  double accel(){
+    return Math.min( settings[120], settings[121] );
+  }
+
+  double maxRate(){
+    return Math.min( settings[110], settings[111] ) / 60.0;
+  }
+
+  // PARSE NEXT LINE FROM RX BUFFER
+  // Like GRBL, a line is only taken once the planner has a free block, and
+  // commands that synchronize (dwell, servo) wait for the planner to drain
+  boolean parseNext(){
+    if( clock < busyUntil || state == STATE_HOLD || state == STATE_DOOR ) return false;
+    if( blocks() >= planner.length - 1 ) return false;
+    int end = -1;
+    for( int i = 0; i < rxCount; i++ ){
+      byte c = rxBuf[(rxHead + i) % rxBuf.length];
+      if( c == '\n' || c == '\r' ){
+        end = i;
+        break;
+      }
+    }
+    if( end < 0 ) return false;
+    StringBuilder sb = new StringBuilder();
+    for( int i = 0; i < end; i++ ){
+      char c = (char) rxBuf[(rxHead + i) % rxBuf.length];
+      if( c > ' ' ) sb.append( Character.toUpperCase(c) );
+    }
+    String cmd = sb.toString();
+    if( needsSync(cmd) && (plCount > 0 || current != null) ) return false;
+    rxHead = (rxHead + end + 1) % rxBuf.length;
+    rxCount -= end + 1;
+    if( cmd.length() == 0 ) return true;
+    busyUntil = clock + lineCost;
+    int err = (cmd.charAt(0) == '$') ? system(cmd) : gcode(cmd);
+    lines++;
+    if( err == 0 ){
+      reply( "ok" );
+    } else {
+      errors++;
+      reply( "error:" + err );
+    }
+    return true;
+  }
+
+  boolean needsSync( String cmd ){
+    return cmd.indexOf('M') >= 0 || cmd.indexOf("G4") >= 0 || cmd.indexOf("G10") >= 0 || cmd.startsWith("$");
+  }
+
+  // $ SYSTEM COMMANDS
+  int system( String cmd ){
+    if( cmd.equals("$X") ){
+      alarm = false;
+      state = STATE_IDLE;
+      reply( "[MSG:Caution: Unlocked]" );
+      return 0;
+    }
+    if( cmd.equals("$$") ){
+      for( int i = 0; i < settings.length; i++ ){
+        if( settings[i] != 0 ) reply( "$" + i + "=" + nf(settings[i],0,3) );
+      }
+      return 0;
+    }
+    if( cmd.equals("$I") ){
+      reply( "[VER:1.1f.sim:]" );
+      return 0;
+    }
+    if( cmd.equals("$G") ){
+      reply( "[GC:G" + motion + " G54 G17 G21 G" + (absolute ? 90 : 91) + " G94 M" + ((spindle > 0) ? 3 : 5) + " M9 T0 F" + int(feed) + " S" + spindle + "]" );
+      return 0;
+    }
+    int eq = cmd.indexOf('=');
+    if( eq > 1 ){
+      int n = parseInt( cmd.substring(1, eq), -1 );
+      if( n < 0 || n >= settings.length ) return 3;
+      settings[n] = parseFloat( cmd.substring(eq+1) );
+      return 0;
+    }
+    return 3;
+  }
+
+  // GCODE BLOCK
+  int gcode( String cmd ){
+    if( alarm ) return 9;
+    float x = Float.NaN, y = Float.NaN, i = 0, j = 0, p = 0;
+    int g = -1;
+    int m = -1;
+    int l = -1;
+    boolean machineCoords = false;
+    lineNumber = 0; // per block, like GRBL
+    int k = 0;
+    while( k < cmd.length() ){
+      char c = cmd.charAt(k++);
+      int s = k;
+      while( k < cmd.length() && !Character.isLetter(cmd.charAt(k)) ) k++;
+      float v;
+      try{
+        v = Float.parseFloat( cmd.substring(s, k) );
+      } catch( NumberFormatException e ){
+        return 2;
+      }
+      switch( c ){
+        case 'G':
+          int code = int(v);
+          if( code == 90 ) absolute = true;
+          else if( code == 91 ) absolute = false;
+          else if( code == 53 ) machineCoords = true;
+          else if( code == 20 ) return 20;
+          else if( code == 21 || code == 54 || code == 17 || code == 94 ) continue;
+          else if( code <= 4 || code == 10 ) g = code;
+          else return 20;
+          break;
+        case 'M': m = int(v); break;
+        case 'X': x = v; break;
+        case 'Y': y = v; break;
+        case 'Z': break;
+        case 'I': i = v; break;
+        case 'J': j = v; break;
+        case 'F': feed = v; break;
+        case 'S': spindle = int(v); break;
+        case 'P': p = v; break;
+        case 'L': l = int(v); break;
+        case 'N': lineNumber = int(v); break;
+        default: return 20;
+      }
+    }
+
+    if( m == 3 || m == 4 ){
+      // spindle value already applied (servo moves once the planner drained)
+    } else if( m == 5 ){
+      spindle = 0;
+    } else if( m == 2 || m == 30 ){
+      spindle = 0;
+    } else if( m >= 0 ){
+      return 20;
+    }
+
+    if( g == 10 ){
+      if( l != 20 ) return 20;
+      if( !Float.isNaN(x) ) wcoX = mx - x;
+      if( !Float.isNaN(y) ) wcoY = my - y;
+      return 0;
+    }
+    if( g == 4 ){
+      queueDwell( p );
+      return 0;
+    }
+    if( g >= 0 ) motion = g;
+    if( Float.isNaN(x) && Float.isNaN(y) ) return 0;
+
+    // Target in machine coordinates
+    float px = mx, py = my;
+    if( plCount > 0 ){
+      SimBlock tail = planner[(plHead + plCount - 1) % planner.length];
+      px = tail.x;
+      py = tail.y;
+    } else if( current != null ){
+      px = current.x;
+      py = current.y;
+    }
+    float tx, ty;
+    if( machineCoords ){
+      tx = Float.isNaN(x) ? px : x;
+      ty = Float.isNaN(y) ? py : y;
+    } else if( absolute ){
+      tx = Float.isNaN(x) ? px : x + wcoX;
+      ty = Float.isNaN(y) ? py : y + wcoY;
+    } else {
+      tx = px + (Float.isNaN(x) ? 0 : x);
+      ty = py + (Float.isNaN(y) ? 0 : y);
+    }
+
+    if( motion != 0 && feed <= 0 ) return 22;
+    double rate = (motion == 0) ? maxRate() : Math.min( feed / 60.0, maxRate() );
+    double len = dist( px, py, tx, ty );
+    if( motion == 2 || motion == 3 ){
+      // Arc length and centripetal speed limit
+      float cx = px + i, cy = py + j;
+      float r = dist( px, py, cx, cy );
+      float a0 = atan2( py - cy, px - cx );
+      float a1 = atan2( ty - cy, tx - cx );
+      float sweep = (motion == 2) ? a0 - a1 : a1 - a0;
+      while( sweep <= 0 ) sweep += TWO_PI;
+      len = r * sweep;
+      rate = Math.min( rate, Math.sqrt( accel() * r ) );
+    }
+    queueMove( tx, ty, len, rate, motion == 0 );
+    return 0;
+  }
+
+  // ADD MOTION BLOCK AND RE-PLAN
+  void queueMove( float tx, float ty, double len, double rate, boolean rapid ){
+    if( len < 1e-6 ) return;
+    SimBlock b = planner[(plHead + plCount) % planner.length];
+    float px = (plCount > 0) ? planner[(plHead + plCount - 1) % planner.length].x : (current != null) ? current.x : mx;
+    float py = (plCount > 0) ? planner[(plHead + plCount - 1) % planner.length].y : (current != null) ? current.y : my;
+    b.x = tx;
+    b.y = ty;
+    b.length = len;
+    b.dx = (float) ((tx - px) / len);
+    b.dy = (float) ((ty - py) / len);
+    b.nominal = rate;
+    b.rapid = rapid;
+    b.dwell = 0;
+    b.lineNumber = lineNumber;
+    b.spraying = spindle > 0;
+    b.maxEntry = junctionSpeed( b );
+    lastDx = b.dx;
+    lastDy = b.dy;
+    plCount++;
+    replan();
+  }
+
+  void queueDwell( float seconds ){
+    SimBlock b = planner[(plHead + plCount) % planner.length];
+    b.x = mx;
+    b.y = my;
+    b.length = 0;
+    b.nominal = 0;
+    b.maxEntry = 0;
+    b.entry = b.exit = 0;
+    b.dwell = Math.max( seconds, 0.001 );
+    b.lineNumber = lineNumber;
+    lastDx = lastDy = 0;
+    plCount++;
+  }
+
+  // JUNCTION DEVIATION SPEED LIMIT (planner.c)
+  double junctionSpeed( SimBlock b ){
+    if( lastDx == 0 && lastDy == 0 ) return 0;
+    double cos = -(lastDx*b.dx + lastDy*b.dy);
+    if( cos > 0.999999 ) return 0;
+    if( cos < -0.999999 ) return b.nominal;
+    double sin = Math.sqrt( 0.5*(1.0 - cos) );
+    double v2 = accel() * settings[11] * sin / (1.0 - sin);
+    return Math.min( Math.sqrt(v2), b.nominal );
+  }
+
+  // REVERSE AND FORWARD PLANNER PASSES
+  void replan(){
+    double a = accel();
+    double next = 0;
+    for( int n = plCount-1; n >= 0; n-- ){
+      SimBlock b = planner[(plHead + n) % planner.length];
+      if( b.dwell > 0 ){
+        next = 0;
+        continue;
+      }
+      b.entry = Math.min( b.maxEntry, Math.sqrt( next*next + 2*a*b.length ) );
+      next = b.entry;
+    }
+    double prev = (current != null) ? current.exit : 0;
+    for( int n = 0; n < plCount; n++ ){
+      SimBlock b = planner[(plHead + n) % planner.length];
+      if( b.dwell > 0 ){
+        prev = 0;
+        continue;
+      }
+      b.entry = Math.min( b.entry, prev );
+      prev = Math.sqrt( b.entry*b.entry + 2*a*b.length );
+    }
+  }
+
+  // STATUS REPORT
+  void report(){
+    String s = "<" + STATE_NAMES[state];
+    if( (state == STATE_HOLD || state == STATE_DOOR) && substate >= 0 ) s += ":" + substate;
+    s += "|WPos:" + nf(mx - wcoX,0,3) + "," + nf(my - wcoY,0,3) + ",0.000";
+    s += "|Bf:" + ((planner.length-1) - blocks()) + "," + ((rxBuf.length-1) - rxCount);
+    // Line number of the block executing, none when idle or unnumbered
+    if( current != null && current.lineNumber > 0 ) s += "|Ln:" + current.lineNumber;
+    double v = (current != null && state == STATE_RUN) ? current.speedAt( blockTime, accel() ) * 60 : 0;
+    s += "|FS:" + int((float) v) + "," + spindle;
+    if( reportCount % 10 == 0 ) s += "|WCO:" + nf(wcoX,0,3) + "," + nf(wcoY,0,3) + ",0.000";
+    else if( reportCount % 10 == 1 || ovChanged ) s += "|Ov:" + ovFeed + "," + ovRapid + "," + ovSpindle;
+    ovChanged = false;
+    reportCount++;
+    reply( s + ">" );
+  }
+
+  void reply( String s ){
+    byte[] b = (s + "\r\n").getBytes( java.nio.charset.StandardCharsets.US_ASCII );
+    dev.write( b, 0, b.length );
+  }
+
+  // SUMMARY
+  synchronized String summary(){
+    return "SIM: " + lines + " lines, " + errors + " errors, " + overflows + " RX overflows, "
+      + nf((float) distance,0,1) + " mm, " + nf((float) busyTime,0,1) + " s moving / " + nf((float) clock,0,1) + " s total";
+  }
+}
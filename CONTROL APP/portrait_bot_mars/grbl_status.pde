@@ -0,0 +1,266 @@
+////////////////////////////////////////////////////////////////////////////////
+// GRBL STATUS REPORT
+////////////////////////////////////////////////////////////////////////////////
+// Single-pass parser for realtime status reports such as
+//   <Idle|WPos:10.000,20.000,0.000|Bf:15,128|FS:0,110|WCO:0.000,0.000,0.000>
+// Fields are matched by name, so reports with extra or reordered fields
+// (REPORT_FIELD_* options in config.h) parse the same way. The parser fills
+// a reusable record and never allocates.
+
+// MACHINE STATES
+static final int STATE_UNKNOWN = 0;
+static final int STATE_IDLE = 1;
+static final int STATE_RUN = 2;
+static final int STATE_HOLD = 3;
+static final int STATE_JOG = 4;
+static final int STATE_ALARM = 5;
+static final int STATE_DOOR = 6;
+static final int STATE_CHECK = 7;
+static final int STATE_HOME = 8;
+static final int STATE_SLEEP = 9;
+
+String[] STATE_NAMES = { "[...]", "Idle", "Run", "Hold", "Jog", "Alarm", "Door", "Check", "Home", "Sleep" };
+// FLAG LETTERS, bit i set when letter i is reported
+String PIN_LETTERS = "XYZPDHRS";
+String ACCESSORY_LETTERS = "SCFM";
+
+class GrblStatus {
+  int state;
+  int substate; // Hold:N / Door:N, -1 if not reported
+  // POSITIONS
+  float[] mpos, wpos, wco;
+  boolean hasMPos, hasWPos, hasWco;
+  // BUFFER STATE (Bf:)
+  int bfPlanner, bfRx;
+  boolean hasBf;
+  // LINE NUMBER (Ln:)
+  int lineNumber;
+  boolean hasLine;
+  // FEED & SERVO (F: / FS:)
+  float feed;
+  int spindle;
+  // INPUT PINS (Pn:) as PIN_* bits
+  int pins;
+  // OVERRIDES (Ov:) in percent, kept until the next Ov: field
+  int ovFeed, ovRapid, ovSpindle;
+  boolean hasOv;
+  // ACCESSORIES (A:)
+  int accessories;
+  int reports;
+  // PARSER CURSOR
+  int cursor;
+
+  GrblStatus(){
+    mpos = new float[3];
+    wpos = new float[3];
+    wco = new float[3];
+    reset();
+  }
+
+  void reset(){
+    state = STATE_UNKNOWN;
+    substate = -1;
+    hasMPos = hasWPos = hasWco = hasBf = hasLine = hasOv = false;
+    bfPlanner = bfRx = 0;
+    lineNumber = 0;
+    feed = 0;
+    spindle = 0;
+    pins = 0;
+    ovFeed = ovRapid = ovSpindle = 100;
+    accessories = 0;
+    reports = 0;
+    for( int i = 0; i < 3; i++ ){
+      mpos[i] = wpos[i] = wco[i] = 0;
+    }
+  }
+
+  // PARSE STATUS REPORT
+  // b[s .. e) is the report including the enclosing < >
+  // Returns false if the bytes are not a status report
+  boolean parse( byte[] b, int s, int e ){
+    if( e - s < 2 || b[s] != '<' || b[e-1] != '>' ) return false;
+    s++;
+    e--;
+    // Fields that are only present when they change or when enabled
+    hasMPos = hasWPos = hasBf = hasLine = false;
+    pins = 0;
+    accessories = 0;
+
+    // State, with optional :substate
+    int end = fieldEnd(b, s, e);
+    int colon = indexOf(b, s, end, ':');
+    state = parseState(b, s, (colon < 0) ? end : colon);
+    substate = (colon < 0) ? -1 : (int) parseDecimal(b, colon+1, end);
+    s = end + 1;
+
+    // Named fields
+    while( s < e ){
+      end = fieldEnd(b, s, e);
+      colon = indexOf(b, s, end, ':');
+      if( colon > s ) parseField(b, s, colon, colon+1, end);
+      s = end + 1;
+    }
+
+    // Derive the missing position from the work coordinate offset
+    if( hasMPos && !hasWPos ){
+      for( int i = 0; i < 3; i++ ) wpos[i] = mpos[i] - wco[i];
+    } else if( hasWPos && !hasMPos ){
+      for( int i = 0; i < 3; i++ ) mpos[i] = wpos[i] + wco[i];
+    }
+    reports++;
+    return true;
+  }
+
+  void parseField( byte[] b, int ns, int ne, int vs, int ve ){
+    int n = ne - ns;
+    byte c0 = b[ns];
+    byte c1 = (n > 1) ? b[ns+1] : 0;
+    if( n == 4 && c0 == 'M' && c1 == 'P' ){
+      parseAxes(b, vs, ve, mpos);
+      hasMPos = true;
+    } else if( n == 4 && c0 == 'W' && c1 == 'P' ){
+      parseAxes(b, vs, ve, wpos);
+      hasWPos = true;
+    } else if( n == 3 && c0 == 'W' && c1 == 'C' ){
+      parseAxes(b, vs, ve, wco);
+      hasWco = true;
+    } else if( n == 2 && c0 == 'B' && c1 == 'f' ){
+      bfPlanner = (int) parseDecimal(b, vs, ve);
+      bfRx = (int) parseDecimal(b, cursor+1, ve);
+      hasBf = true;
+    } else if( n == 2 && c0 == 'L' && c1 == 'n' ){
+      lineNumber = (int) parseDecimal(b, vs, ve);
+      hasLine = true;
+    } else if( n == 2 && c0 == 'F' && c1 == 'S' ){
+      feed = parseDecimal(b, vs, ve);
+      spindle = (int) parseDecimal(b, cursor+1, ve);
+    } else if( n == 1 && c0 == 'F' ){
+      feed = parseDecimal(b, vs, ve);
+    } else if( n == 2 && c0 == 'P' && c1 == 'n' ){
+      pins = parseFlags(b, vs, ve, PIN_LETTERS);
+    } else if( n == 2 && c0 == 'O' && c1 == 'v' ){
+      ovFeed = (int) parseDecimal(b, vs, ve);
+      ovRapid = (int) parseDecimal(b, cursor+1, ve);
+      ovSpindle = (int) parseDecimal(b, cursor+1, ve);
+      hasOv = true;
+    } else if( n == 1 && c0 == 'A' ){
+      accessories = parseFlags(b, vs, ve, ACCESSORY_LETTERS);
+    }
+  }
+
+  // PARSE COMMA SEPARATED AXIS VALUES
+  void parseAxes( byte[] b, int s, int e, float[] axes ){
+    cursor = s;
+    for( int i = 0; i < axes.length && cursor < e; i++ ){
+      axes[i] = parseDecimal(b, (i == 0) ? s : cursor+1, e);
+    }
+  }
+
+  // PARSE DECIMAL NUMBER
+  // Reads [-]digits[.digits] from b[s .. e) and leaves cursor on the first
+  // byte after the number
+  float parseDecimal( byte[] b, int s, int e ){
+    int i = s;
+    boolean neg = false;
+    if( i < e && (b[i] == '-' || b[i] == '+') ){
+      neg = b[i] == '-';
+      i++;
+    }
+    long whole = 0;
+    while( i < e && b[i] >= '0' && b[i] <= '9' ){
+      whole = whole*10 + (b[i] - '0');
+      i++;
+    }
+    long frac = 0;
+    long scale = 1;
+    if( i < e && b[i] == '.' ){
+      i++;
+      while( i < e && b[i] >= '0' && b[i] <= '9' ){
+        if( scale < 1000000000L ){
+          frac = frac*10 + (b[i] - '0');
+          scale *= 10;
+        }
+        i++;
+      }
+    }
+    cursor = i;
+    float v = (float) (whole + (double) frac / scale);
+    return neg ? -v : v;
+  }
+
+  // PARSE FLAG LETTERS (Pn:XYZPDHRS / A:SCFM)
+  int parseFlags( byte[] b, int s, int e, String letters ){
+    int bits = 0;
+    for( int i = s; i < e; i++ ){
+      int k = letters.indexOf( (char) b[i] );
+      if( k >= 0 ) bits |= 1 << k;
+    }
+    return bits;
+  }
+
+  int parseState( byte[] b, int s, int e ){
+    for( int i = 1; i < STATE_NAMES.length; i++ ){
+      String name = STATE_NAMES[i];
+      if( e - s == name.length() && startsWith(b, s, e, name) ) return i;
+    }
+    return STATE_UNKNOWN;
+  }
+
+  int fieldEnd( byte[] b, int s, int e ){
+    int i = indexOf(b, s, e, '|');
+    return (i < 0) ? e : i;
+  }
+
+  int indexOf( byte[] b, int s, int e, char c ){
+    for( int i = s; i < e; i++ ){
+      if( b[i] == c ) return i;
+    }
+    return -1;
+  }
+
+  boolean hasPin( char pin ){
+    int k = PIN_LETTERS.indexOf(pin);
+    return k >= 0 && (pins & (1 << k)) != 0;
+  }
+
+  String stateName(){
+    return STATE_NAMES[state];
+  }
+
+  // COPY INTO ANOTHER RECORD
+  void copyTo( GrblStatus o ){
+    o.state = state;
+    o.substate = substate;
+    arrayCopy(mpos, o.mpos);
+    arrayCopy(wpos, o.wpos);
+    arrayCopy(wco, o.wco);
+    o.hasMPos = hasMPos;
+    o.hasWPos = hasWPos;
+    o.hasWco = hasWco;
+    o.bfPlanner = bfPlanner;
+    o.bfRx = bfRx;
+    o.hasBf = hasBf;
+    o.lineNumber = lineNumber;
+    o.hasLine = hasLine;
+    o.feed = feed;
+    o.spindle = spindle;
+    o.pins = pins;
+    o.ovFeed = ovFeed;
+    o.ovRapid = ovRapid;
+    o.ovSpindle = ovSpindle;
+    o.hasOv = hasOv;
+    o.accessories = accessories;
+    o.reports = reports;
+  }
+
+  // FORMAT STATUS MESSAGE FOR UX
+  String describe(){
+    if( reports == 0 ) return STATE_NAMES[STATE_UNKNOWN];
+    String s = stateName();
+    s += " | WPos:" + nf(wpos[0],0,3) + "," + nf(wpos[1],0,3);
+    if( hasBf ) s += " | Bf:" + bfPlanner + "," + bfRx;
+    s += " | FS:" + int(feed) + "," + spindle;
+    if( hasOv && (ovFeed != 100 || ovRapid != 100 || ovSpindle != 100) ) s += " | Ov:" + ovFeed + "," + ovRapid + "," + ovSpindle;
+    return s;
+  }
+}
@@ -0,0 +1,145 @@
+////////////////////////////////////////////////////////////////////////////////
+// HEADLESS RUNNER
+////////////////////////////////////////////////////////////////////////////////
+// Streams jobs from the command line with no window, fonts or ControlP5,
+// for unattended kiosks and for build boxes running against the simulator.
+//
+//   portrait_bot_mars --run [options] <port> <file|folder> ...
+//
+//   --baud N                  BAUD_RATE
+//   --bench N,N,...           benchmark the first job at each baud rate
+//   --depth N                 PIPELINE_DEPTH (0 = character counting)
+//   --errors pause|skip|retry ERROR_POLICY, pause stops the run
+//   --lazy                    read every G-code file while drawing (lazyLoad 0)
+//   --verbose                 print every response
+//
+// Jobs are loaded with the same loaders as the UI and streamed one after
+// the other, each after the spray feed rate like START sends it. Files
+// ending in .json are read as JSON drawings, everything else as G-code.
+// Exit code 0 if every job finished without errors.
+
+int headlessAcked; // lines acked in the last streamHeadless() run
+
+int runHeadless( String[] args ){
+  int a = 0;
+  int[] bench = null;
+  while( a < args.length && args[a].startsWith("--") ){
+    String opt = args[a++];
+    if( opt.equals("--verbose") ){
+      VERBOSE = true;
+    } else if( opt.equals("--baud") && a < args.length ){
+      BAUD_RATE = int(args[a++]);
+    } else if( opt.equals("--bench") && a < args.length ){
+      bench = int( split(args[a++], ',') );
+    } else if( opt.equals("--depth") && a < args.length ){
+      PIPELINE_DEPTH = int(args[a++]);
+    } else if( opt.equals("--lazy") ){
+      lazyLoad = 0;
+    } else if( opt.equals("--errors") && a < args.length ){
+      String p = args[a++];
+      ERROR_POLICY = p.equals("skip") ? ERROR_SKIP : p.equals("retry") ? ERROR_RETRY : ERROR_PAUSE;
+    } else {
+      println("UNKNOWN OPTION: " + opt);
+      return 2;
+    }
+  }
+  if( args.length - a < 2 ){
+    println("USAGE: portrait_bot_mars --run [--baud N] [--bench N,N,...] [--depth N] [--errors pause|skip|retry] [--lazy] [--verbose] <port> <file|folder> ...");
+    return 2;
+  }
+  if( bench != null ) return runBenchmark( args[a], bench, new File(args[a+1]) );
+
+  initVariables();
+  MachineSession m = session;
+  m.portname = args[a++];
+  if( !watcher.open( m ) ){
+    println("CANNOT OPEN " + m.portname);
+    return 1;
+  }
+  m.connected = true;
+  println("CONNECTED ON " + m.portname + ((m.engine.banner != null) ? " (" + m.engine.banner + ")" : " (NO GRBL BANNER)"));
+
+  long started = System.nanoTime();
+  int lines = 0;
+  int failed = 0;
+  for( int i = a; i < args.length; i++ ){
+    File f = new File( args[i] );
+    println("JOB " + (i-a+1) + " OF " + (args.length-a) + ": " + f.getPath());
+    if( !loadHeadless( f ) ){
+      println("NOTHING TO STREAM IN " + f.getPath());
+      failed++;
+      continue;
+    }
+    if( !streamHeadless( m ) ) failed++;
+    lines += headlessAcked;
+    if( !m.connected ) break;
+  }
+
+  float secs = (System.nanoTime() - started) / 1000000000.0;
+  println("TOTAL: " + lines + " LINES IN " + nf(secs,0,1) + " s, " + failed + " FAILED");
+  m.engine.halt();
+  m.engine.detach();
+  return (failed == 0) ? 0 : 1;
+}
+
+// LOAD FILE OR FOLDER
+// File type follows the extension, a folder is JSON if it holds no G-code
+boolean loadHeadless( File f ){
+  if( f.isDirectory() ){
+    String[] files = listFiles( f.getAbsolutePath() );
+    boolean gcode = files == null || checkDir( files, "txt" ) || !checkDir( files, "json" );
+    return loadFolderJob( session, f, gcode );
+  }
+  return loadFileJob( session, f, !fileCheck( f.getName(), "json" ) );
+}
+
+// STREAM LOADED JOB AND WAIT UNTIL THE MACHINE IS IDLE
+// Prints progress every second. Returns false if the stream was cut off,
+// stopped on an error or timed out. Counts the acked lines in headlessAcked.
+boolean streamHeadless( MachineSession m ){
+  int finished = m.engine.finished;
+  headlessAcked = 0;
+  m.engine.begin( m.job );
+  // Feed rate goes out after begin(), ahead of the first job line
+  m.engine.send( "G1F" + str(spray_speed) );
+  m.streaming = true;
+  long started = System.nanoTime();
+  long shown = started;
+  int last = 0;
+  int reports = -1;
+  while( m.connected ){
+    java.util.concurrent.locks.LockSupport.parkNanos( 50000000 );
+    m.engine.snapshot( m.progress );
+    long now = System.nanoTime();
+    // The engine clears its counters once the job is done
+    boolean over = m.engine.finished > finished;
+    headlessAcked = (over) ? m.progress.total - m.progress.errors : m.progress.completed;
+    if( m.paused ){
+      println("STOPPED ON ERROR: " + m.progress.lastError);
+      m.engine.cancel();
+      m.paused = false;
+      return false;
+    }
+    if( now - shown >= 1000000000L ){
+      StreamProgress p = m.progress;
+      int done = (over) ? p.total : p.completed;
+      println("PROGRESS: " + done + " / " + p.total + " (" + nf(100 * ((over) ? 1 : p.fraction),0,1) + "%) " + nf((done - last) * 1000000000.0 / (now - shown),0,1) + " LINES/s  " + p.machine.describe());
+      last = done;
+      shown = now;
+    }
+    // Acks come back as blocks are queued, motion finishes after them.
+    // Idle only counts in a report requested after the last ack.
+    if( !m.streaming ){
+      if( reports < 0 ) reports = m.progress.machine.reports;
+      if( m.progress.machine.reports >= reports + 2 && m.progress.machine.state == STATE_IDLE ) break;
+    }
+  }
+  if( !m.connected ){
+    println("CONNECTION LOST");
+    return false;
+  }
+  float secs = (System.nanoTime() - started) / 1000000000.0;
+  boolean complete = m.engine.finished > finished && m.progress.errors == 0;
+  println("JOB " + (complete ? "DONE" : "INCOMPLETE") + ": " + m.job.size() + " LINES, " + m.progress.errors + " ERRORS, " + nf(secs,0,1) + " s INCLUDING MOTION");
+  return complete;
+}
@@ -0,0 +1,335 @@
+////////////////////////////////////////////////////////////////////////////////
+// JOB JOURNAL
+////////////////////////////////////////////////////////////////////////////////
+// Append-only checkpoint log of the running job, so a drawing interrupted
+// by a dropped USB link or a crash can be resumed instead of restarted.
+//
+//   JOB <lines> <crc> <dir 0/1> <gcode 0/1> <path>   job started (-1 lines: read while drawing)
+//   C <line> <motion> <abs> <feed> <m3> <s> <x> <y>  resume point + modal state
+//   END                                              job finished or discarded
+//
+// A checkpoint names the first line that may not have been drawn yet,
+// together with the modal state in effect before it. Checkpoints only move
+// forward and are written and synced at most every journalSync ms.
+
+import java.util.zip.CRC32;
+
+class JobJournal {
+  String path;
+  FileOutputStream out;
+  // CURRENT JOB
+  int checkpoint;
+  ModalState modal;
+  boolean pending;
+  long lastSync;
+  // RECOVERED FROM FILE
+  int savedLines;
+  long savedCrc;
+  boolean savedDir, savedGcode;
+  String savedPath;
+  int savedFrom;
+  ModalState savedModal;
+
+  JobJournal( String path ){
+    this.path = path;
+    modal = new ModalState();
+    savedModal = new ModalState();
+  }
+
+  // NEW JOB, truncates the journal
+  // file, dir, gcode: what the job was loaded from and how, for reloading
+  // it on resume
+  synchronized void start( JobSource job, String file, boolean dir, boolean gcode ){
+    close();
+    checkpoint = 0;
+    modal.reset();
+    pending = false;
+    try{
+      out = new FileOutputStream( path, false );
+      write( "JOB " + job.total() + " " + job.checksum() + " " + (dir ? 1 : 0) + " " + (gcode ? 1 : 0) + " " + file + "\n" );
+      sync();
+    } catch( IOException e ){
+      println("JOURNAL DISABLED: " + e.getMessage());
+      out = null;
+    }
+  }
+
+  // CONTINUE A RECOVERED JOB FROM LINE from
+  synchronized void resume( int from, ModalState m ){
+    close();
+    checkpoint = from;
+    m.copyTo( modal );
+    pending = false;
+    try{
+      out = new FileOutputStream( path, true );
+    } catch( IOException e ){
+      println("JOURNAL DISABLED: " + e.getMessage());
+      out = null;
+    }
+  }
+
+  // MOVE RESUME POINT FORWARD TO LINE from
+  synchronized void checkpoint( JobSource job, int from ){
+    if( out == null || from <= checkpoint ) return;
+    modal.advance( job, from );
+    checkpoint = from;
+    pending = true;
+  }
+
+  // WRITE PENDING CHECKPOINT IF DUE
+  synchronized void tick( long now ){
+    if( pending && now - lastSync >= journalSync * 1000000L ) flush();
+  }
+
+  // WRITE PENDING CHECKPOINT NOW
+  synchronized void flush(){
+    if( !pending || out == null ) return;
+    pending = false;
+    try{
+      write( "C " + checkpoint + " " + modal.encode() + "\n" );
+      sync();
+    } catch( IOException e ){
+      println("JOURNAL DISABLED: " + e.getMessage());
+      close();
+    }
+  }
+
+  // JOB DONE, NOTHING TO RESUME
+  synchronized void finish(){
+    if( out == null ){
+      try{
+        out = new FileOutputStream( path, true );
+      } catch( IOException e ){
+        return;
+      }
+    }
+    pending = false;
+    try{
+      write( "END\n" );
+      sync();
+    } catch( IOException e ){
+    }
+    close();
+  }
+
+  void write( String s ) throws IOException {
+    out.write( s.getBytes( java.nio.charset.StandardCharsets.US_ASCII ) );
+  }
+
+  // FSYNC
+  void sync() throws IOException {
+    out.flush();
+    out.getChannel().force( false );
+    lastSync = System.nanoTime();
+  }
+
+  void close(){
+    try{
+      if( out != null ) out.close();
+    } catch( IOException e ){
+    }
+    out = null;
+  }
+
+  // READ JOURNAL
+  // Returns true if it holds an unfinished job with at least one checkpoint
+  synchronized boolean recover(){
+    if( !new File( path ).exists() ) return false;
+    String[] lines = loadStrings( path );
+    if( lines == null ) return false;
+    boolean started = false;
+    boolean checked = false;
+    for( String l : lines ){
+      String[] w = splitTokens( l, " " );
+      if( w.length == 0 ) continue;
+      if( w[0].equals("JOB") && w.length >= 6 ){
+        savedLines = int(w[1]);
+        savedCrc = Long.parseLong(w[2]);
+        savedDir = w[3].equals("1");
+        savedGcode = w[4].equals("1");
+        savedPath = l.split( " ", 6 )[5];
+        started = true;
+        checked = false;
+      } else if( w[0].equals("C") && w.length >= 9 && started ){
+        savedFrom = int(w[1]);
+        checked = savedModal.decode( w, 2 );
+        savedModal.index = savedFrom;
+      } else if( w[0].equals("END") ){
+        started = false;
+      }
+    }
+    return started && checked && savedFrom > 0 && (savedLines < 0 || savedFrom < savedLines);
+  }
+
+  // MARK RECOVERED JOB AS DONE
+  void discard(){
+    finish();
+  }
+
+  synchronized boolean active(){
+    return out != null;
+  }
+}
+
+// MODAL STATE
+// What a line depends on from the lines before it: motion mode, distance
+// mode, feed, spray, and the position the previous line left the nozzle at
+class ModalState {
+  int index; // state is the one in effect before job line index
+  int motion;
+  boolean absolute;
+  float feed;
+  boolean sprayOn;
+  int spray;
+  float x, y;
+  int cursor;
+  byte[] line;
+
+  ModalState(){
+    line = new byte[128];
+    reset();
+  }
+
+  void reset(){
+    index = 0;
+    motion = 0;
+    absolute = true;
+    feed = 0;
+    sprayOn = false;
+    spray = 0;
+    x = 0;
+    y = 0;
+  }
+
+  // APPLY JOB LINES UP TO (NOT INCLUDING) LINE to
+  void advance( JobSource job, int to ){
+    if( to < index ){
+      reset();
+    }
+    for( ; index < to && job.ready(index); index++ ){
+      if( job.isBlank(index) ) continue;
+      if( line.length < job.length(index) ) line = new byte[job.length(index) * 2];
+      int n = job.copy( index, line, 0 );
+      apply( line, 0, n-1 );
+    }
+  }
+
+  // APPLY ONE LINE b[s .. e)
+  void apply( byte[] b, int s, int e ){
+    float nx = Float.NaN, ny = Float.NaN;
+    boolean setOrigin = false;
+    boolean machine = false;
+    int i = s;
+    while( i < e ){
+      char c = Character.toUpperCase( (char) b[i] );
+      if( c == '(' || c == ';' ) break;
+      if( c < 'A' || c > 'Z' ){
+        i++;
+        continue;
+      }
+      float v = number( b, i+1, e );
+      i = cursor;
+      switch( c ){
+        case 'G':
+          int g = int(v);
+          if( g <= 3 ) motion = g;
+          else if( g == 90 ) absolute = true;
+          else if( g == 91 ) absolute = false;
+          else if( g == 10 ) setOrigin = true;
+          else if( g == 53 ) machine = true;
+          break;
+        case 'M':
+          int m = int(v);
+          if( m == 3 || m == 4 ) sprayOn = true;
+          else if( m == 5 || m == 2 || m == 30 ) sprayOn = false;
+          break;
+        case 'S': spray = int(v); break;
+        case 'F': feed = v; break;
+        case 'X': nx = v; break;
+        case 'Y': ny = v; break;
+      }
+    }
+    // G10 L20 makes the current position the given work coordinates
+    if( setOrigin ){
+      if( !Float.isNaN(nx) ) x = nx;
+      if( !Float.isNaN(ny) ) y = ny;
+      return;
+    }
+    // G53 targets are machine coordinates, position is unknown afterwards
+    if( machine ) return;
+    if( !Float.isNaN(nx) ) x = (absolute) ? nx : x + nx;
+    if( !Float.isNaN(ny) ) y = (absolute) ? ny : y + ny;
+  }
+
+  // PARSE NUMBER, leaves cursor after it
+  float number( byte[] b, int s, int e ){
+    int i = s;
+    boolean neg = false;
+    if( i < e && (b[i] == '-' || b[i] == '+') ){
+      neg = b[i] == '-';
+      i++;
+    }
+    double v = 0;
+    while( i < e && b[i] >= '0' && b[i] <= '9' ){
+      v = v*10 + (b[i++] - '0');
+    }
+    if( i < e && b[i] == '.' ){
+      double scale = 0.1;
+      i++;
+      while( i < e && b[i] >= '0' && b[i] <= '9' ){
+        v += (b[i++] - '0') * scale;
+        scale *= 0.1;
+      }
+    }
+    cursor = i;
+    return (float) ((neg) ? -v : v);
+  }
+
+  // LINES THAT RESTORE THIS STATE FROM ANY STARTING POINT
+  // Spray off, travel to the resume position, then feed, motion mode,
+  // spray and distance mode as they were
+  StringList prelude(){
+    StringList g = new StringList();
+    g.append( gSpray(false) );
+    g.append( "G90" );
+    g.append( gLine( x, y, false ) );
+    if( feed > 0 ) g.append( "G1F" + str(feed) );
+    if( motion == 0 ) g.append( "G0" );
+    if( sprayOn ){
+      g.append( "M3S" + spray );
+      if( spray == sprayon ) g.append( gDwell(0.5) );
+    } else {
+      g.append( "M5" );
+    }
+    if( !absolute ) g.append( "G91" );
+    return g;
+  }
+
+  String encode(){
+    return motion + " " + (absolute ? 1 : 0) + " " + str(feed) + " " + (sprayOn ? 1 : 0) + " " + spray + " " + str(x) + " " + str(y);
+  }
+
+  // READ FIELDS w[at ..] WRITTEN BY encode()
+  boolean decode( String[] w, int at ){
+    if( w.length < at + 7 ) return false;
+    motion = int(w[at]);
+    absolute = w[at+1].equals("1");
+    feed = float(w[at+2]);
+    sprayOn = w[at+3].equals("1");
+    spray = int(w[at+4]);
+    x = float(w[at+5]);
+    y = float(w[at+6]);
+    return true;
+  }
+
+  void copyTo( ModalState o ){
+    o.index = index;
+    o.motion = motion;
+    o.absolute = absolute;
+    o.feed = feed;
+    o.sprayOn = sprayOn;
+    o.spray = spray;
+    o.x = x;
+    o.y = y;
+  }
+}
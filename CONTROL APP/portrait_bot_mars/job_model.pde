@@ -0,0 +1,441 @@
+////////////////////////////////////////////////////////////////////////////////
+// JOB MODEL
+////////////////////////////////////////////////////////////////////////////////
+// Compact in-memory job, one entry per line in parallel primitive arrays
+// instead of one String per line. op and flags say what a line does and
+// which words it has, x .. s hold the word values, so the preview and job
+// statistics scan coordinates without parsing text.
+//
+// The text is kept as shared line forms: a line with its X Y I J F P S
+// numbers cut out, plus how many decimals each number was written with.
+// A drawing usually needs a handful of forms, so a line costs 34 bytes.
+// Every line is checked as it is added and rebuilds to exactly the text it
+// was loaded from. A line that would not (more digits than a float holds,
+// 1.0E-4 style numbers) keeps its whole text as its form.
+
+// OPCODES
+static final byte OP_G0 = 0; // rapid
+static final byte OP_G1 = 1; // line
+static final byte OP_G2 = 2; // clockwise arc
+static final byte OP_G3 = 3; // counterclockwise arc
+static final byte OP_G4 = 4; // dwell
+static final byte OP_M3 = 5; // spray servo position (S)
+static final byte OP_M5 = 6; // spindle off
+static final byte OP_OTHER = 7; // anything else, or no G / M word
+
+// WORDS, flag bit is 1 << W_*
+static final int W_X = 0;
+static final int W_Y = 1;
+static final int W_I = 2;
+static final int W_J = 3;
+static final int W_F = 4;
+static final int W_P = 5;
+static final int W_S = 6;
+static final String WORD_LETTERS = "XYIJFPS";
+
+class JobModel {
+  int lines;
+  byte[] op;
+  byte[] flags;
+  float[][] values; // values[W_*][line]
+  float[] x, y, i, j, f, p, s; // the same arrays by name
+  int[] form;
+  // LINE FORMS
+  ArrayList<LineForm> forms;
+  HashMap<String,Integer> formIndex;
+  int[] recent; // last forms used, checked before the map
+  int maxLength; // longest line any form can produce
+  // PARSING
+  GcodeWords words;
+  char[] key; // form key of the line being added
+  int keyLength;
+  boolean exact; // the key rebuilds the line
+  byte[] scratch;
+
+  JobModel(){
+    this( 64 );
+  }
+
+  JobModel( int capacity ){
+    op = new byte[capacity];
+    flags = new byte[capacity];
+    values = new float[WORD_LETTERS.length()][capacity];
+    form = new int[capacity];
+    alias();
+    forms = new ArrayList<LineForm>();
+    formIndex = new HashMap<String,Integer>();
+    words = new GcodeWords();
+    recent = new int[]{ -1, -1, -1, -1 };
+    key = new char[256];
+    scratch = new byte[256];
+  }
+
+  JobModel( StringList g ){
+    this( max(g.size(), 1) );
+    for( int k = 0; k < g.size(); k++ ) add( g.get(k) );
+  }
+
+  int size(){
+    return lines;
+  }
+
+  boolean has( int n, int w ){
+    return (flags[n] & (1 << w)) != 0;
+  }
+
+  // VALUE OF WORD w ON LINE n, fallback if the line has none
+  float get( int n, int w, float fallback ){
+    return has(n, w) ? values[w][n] : fallback;
+  }
+
+  // ADD LINE, returns its index
+  int add( CharSequence line ){
+    if( lines == op.length ) grow( lines * 2 );
+    int n = lines++;
+    op[n] = OP_OTHER;
+    flags[n] = 0;
+    keyLength = 0;
+    exact = true;
+    boolean opFound = false;
+    int len = line.length();
+    int c0 = 0;
+    while( c0 < len ){
+      char c = line.charAt(c0);
+      // Comments are copied as they are
+      if( c == '(' ){
+        int e = find( line, ')', c0 );
+        e = (e < 0) ? len : e+1;
+        keep( line, c0, e );
+        c0 = e;
+        continue;
+      }
+      if( c == ';' ){
+        keep( line, c0, len );
+        break;
+      }
+      char u = Character.toUpperCase( c );
+      if( !opFound && (u == 'G' || u == 'M') ){
+        float v = words.number( line, c0+1, len );
+        op[n] = opcode( u, v );
+        opFound = true;
+        keep( line, c0, words.cursor );
+        c0 = words.cursor;
+        continue;
+      }
+      int w = WORD_LETTERS.indexOf( u );
+      if( w >= 0 && !has(n, w) ){
+        float v = words.number( line, c0+1, len );
+        int e = words.cursor;
+        int dec = decimals( line, c0+1, e );
+        if( !Float.isNaN(v) && dec <= 9 ){
+          values[w][n] = v;
+          flags[n] |= 1 << w;
+          exact &= canonical( line, c0+1, e, v, dec );
+          keep( c );
+          hole( w, dec );
+          c0 = e;
+          continue;
+        }
+      }
+      keep( c );
+      c0++;
+    }
+    // Keep the line's own text if its form would not rebuild it exactly
+    if( !exact ){
+      keyLength = 0;
+      keep( '\u0002' );
+      keep( line, 0, len );
+    }
+    form[n] = formOf();
+    return n;
+  }
+
+  // ADD EVERY LINE OF ANOTHER MODEL
+  // Copies its arrays, only its forms are looked up again
+  void append( JobModel m ){
+    if( lines + m.lines > op.length ) grow( max( op.length * 2, lines + m.lines ) );
+    int[] map = new int[m.forms.size()];
+    for( int k = 0; k < map.length; k++ ) map[k] = formFor( m.forms.get(k).key );
+    System.arraycopy( m.op, 0, op, lines, m.lines );
+    System.arraycopy( m.flags, 0, flags, lines, m.lines );
+    for( int w = 0; w < values.length; w++ ) System.arraycopy( m.values[w], 0, values[w], lines, m.lines );
+    for( int k = 0; k < m.lines; k++ ) form[lines+k] = map[m.form[k]];
+    lines += m.lines;
+  }
+
+  // APPEND TO FORM KEY
+  // Characters write() cannot give back mean the line is kept as text
+  void keep( char c ){
+    if( keyLength == key.length ) key = java.util.Arrays.copyOf( key, key.length * 2 );
+    key[keyLength++] = c;
+    if( c >= 128 || c == '\u0001' || c == '\u0002' ) exact = false;
+  }
+
+  // NUMBER HOLE: \u0001 <word> <decimals+1>
+  void hole( int w, int dec ){
+    if( keyLength + 3 > key.length ) key = java.util.Arrays.copyOf( key, key.length * 2 );
+    key[keyLength++] = '\u0001';
+    key[keyLength++] = (char) ('0' + w);
+    key[keyLength++] = (char) ('0' + dec + 1);
+  }
+
+  void keep( CharSequence line, int a, int b ){
+    for( int k = a; k < b; k++ ) keep( line.charAt(k) );
+  }
+
+  // OPCODE OF G / M WORD
+  byte opcode( char letter, float v ){
+    int code = int(v);
+    if( Float.isNaN(v) || code != v || code < 0 ) return OP_OTHER;
+    if( letter == 'G' ) return (code <= 4) ? (byte) code : OP_OTHER;
+    if( code == 3 || code == 4 ) return OP_M3;
+    if( code == 5 ) return OP_M5;
+    return OP_OTHER;
+  }
+
+  // DECIMALS WRITTEN IN NUMBER line[s .. e), -1 without a decimal point
+  int decimals( CharSequence line, int s, int e ){
+    for( int k = s; k < e; k++ ){
+      if( line.charAt(k) == '.' ) return e - k - 1;
+    }
+    return -1;
+  }
+
+  // FORM INDEX FOR THE KEY, adds the form if it is new
+  int formOf(){
+    for( int r : recent ){
+      if( r >= 0 && forms.get(r).matches( key, keyLength ) ) return r;
+    }
+    return formFor( new String( key, 0, keyLength ) );
+  }
+
+  // FORM INDEX FOR KEY k, adds the form if it is new
+  int formFor( String k ){
+    Integer idx = formIndex.get( k );
+    if( idx == null ){
+      LineForm lf = new LineForm( k );
+      forms.add( lf );
+      idx = forms.size()-1;
+      formIndex.put( k, idx );
+      maxLength = max( maxLength, lf.maxLength() );
+      if( scratch.length < maxLength ) scratch = new byte[maxLength * 2];
+    }
+    System.arraycopy( recent, 0, recent, 1, recent.length-1 );
+    recent[0] = idx;
+    return idx;
+  }
+
+  // NUMBER line[a .. e) IS WRITTEN THE WAY number() WRITES v
+  // No sign but -, no spaces, no leading zeros, and the digits are the
+  // float rounded to dec decimals
+  boolean canonical( CharSequence line, int a, int e, float v, int dec ){
+    boolean neg = Float.floatToRawIntBits(v) < 0;
+    if( a < e && line.charAt(a) == '-' ){
+      if( !neg ) return false;
+      a++;
+    } else if( neg ){
+      return false;
+    }
+    int whole = (dec >= 0) ? e - a - dec - 1 : e - a;
+    if( whole < 1 || whole + max(dec,0) > 18 || (whole > 1 && line.charAt(a) == '0') ) return false;
+    long digits = 0;
+    for( int k = a; k < e; k++ ){
+      char c = line.charAt(k);
+      if( c == '.' ) continue;
+      if( c < '0' || c > '9' ) return false;
+      digits = digits*10 + (c - '0');
+    }
+    return digits == Math.round( Math.abs( (double) v ) * POW10[max(dec,0)] );
+  }
+
+  int find( CharSequence line, char c, int from ){
+    for( int k = from; k < line.length(); k++ ){
+      if( line.charAt(k) == c ) return k;
+    }
+    return -1;
+  }
+
+  // WRITE LINE n AS ASCII TO out[at ..], returns the end
+  // out needs room for maxLength bytes
+  int write( int n, byte[] out, int at ){
+    LineForm lf = forms.get( form[n] );
+    int holes = lf.words.length;
+    for( int k = 0; k < holes; k++ ){
+      at = ascii( lf.parts[k], out, at );
+      at = number( values[lf.words[k]][n], lf.decimals[k], out, at );
+    }
+    return ascii( lf.parts[holes], out, at );
+  }
+
+  // LINE n AS TEXT, exactly as it was added
+  String text( int n ){
+    LineForm lf = forms.get( form[n] );
+    if( lf.words.length == 0 ) return lf.parts[0];
+    int e = write( n, scratch, 0 );
+    return new String( scratch, 0, e, java.nio.charset.StandardCharsets.US_ASCII );
+  }
+
+  String[] toStrings(){
+    String[] out = new String[lines];
+    for( int n = 0; n < lines; n++ ) out[n] = text(n);
+    return out;
+  }
+
+  int ascii( String s, byte[] out, int at ){
+    for( int k = 0; k < s.length(); k++ ){
+      char c = s.charAt(k);
+      out[at++] = (c < 128) ? (byte) c : (byte) '?';
+    }
+    return at;
+  }
+
+  // WRITE v WITH dec DECIMALS (-1: no decimal point)
+  int number( float v, int dec, byte[] out, int at ){
+    int d = max( dec, 0 );
+    if( Float.floatToRawIntBits(v) < 0 ) out[at++] = '-';
+    long scale = (long) POW10[d];
+    long q = Math.round( Math.abs( (double) v ) * POW10[d] );
+    at = digits( q / scale, 1, out, at );
+    if( dec >= 0 ){
+      out[at++] = '.';
+      if( d > 0 ) at = digits( q % scale, d, out, at );
+    }
+    return at;
+  }
+
+  // WRITE v WITH AT LEAST width DIGITS
+  int digits( long v, int width, byte[] out, int at ){
+    int n = 1;
+    for( long t = 10; n < 19 && v >= t; t *= 10 ) n++;
+    n = max( n, width );
+    for( int k = at + n - 1; k >= at; k-- ){
+      out[k] = (byte) ('0' + (v % 10));
+      v /= 10;
+    }
+    return at + n;
+  }
+
+  void grow( int capacity ){
+    op = java.util.Arrays.copyOf( op, capacity );
+    flags = java.util.Arrays.copyOf( flags, capacity );
+    for( int w = 0; w < values.length; w++ ) values[w] = java.util.Arrays.copyOf( values[w], capacity );
+    form = java.util.Arrays.copyOf( form, capacity );
+    alias();
+  }
+
+  void alias(){
+    x = values[W_X];
+    y = values[W_Y];
+    i = values[W_I];
+    j = values[W_J];
+    f = values[W_F];
+    p = values[W_P];
+    s = values[W_S];
+  }
+
+  // JOB STATISTICS
+  // Drawn (G1-G3) and travel (G0) distance in mm and the drawing bounds,
+  // following positions the same way as the preview
+  JobStats measure(){
+    JobStats st = new JobStats();
+    float lx = 0, ly = 0;
+    for( int n = 0; n < lines; n++ ){
+      byte o = op[n];
+      if( o > OP_G3 ) continue;
+      float nx = get( n, W_X, lx );
+      float ny = get( n, W_Y, ly );
+      double d;
+      if( o >= OP_G2 ){
+        float cx = lx + get( n, W_I, 0 );
+        float cy = ly + get( n, W_J, 0 );
+        double r = Math.hypot( nx - cx, ny - cy );
+        double a = Math.atan2( ny - cy, nx - cx ) - Math.atan2( ly - cy, lx - cx );
+        if( o == OP_G2 && a >= 0 ) a -= TWO_PI;
+        if( o == OP_G3 && a <= 0 ) a += TWO_PI;
+        d = Math.abs( a ) * r;
+      } else {
+        d = Math.hypot( nx - lx, ny - ly );
+      }
+      if( o == OP_G0 ){
+        st.travel += d;
+      } else {
+        st.drawn += d;
+        st.include( lx, ly );
+        st.include( nx, ny );
+      }
+      lx = nx;
+      ly = ny;
+    }
+    return st;
+  }
+}
+
+// LINE FORM
+// Line text split around its number holes: parts[0] number parts[1] ...
+class LineForm {
+  String key;
+  String[] parts;
+  int[] words;
+  int[] decimals;
+
+  // key: text with each hole written as \u0001 <word> <decimals+1>, or
+  // \u0002 followed by the whole line
+  LineForm( String key ){
+    this.key = key;
+    if( key.length() > 0 && key.charAt(0) == '\u0002' ){
+      parts = new String[]{ key.substring(1) };
+      words = new int[0];
+      decimals = new int[0];
+      return;
+    }
+    StringList p = new StringList();
+    IntList w = new IntList();
+    IntList d = new IntList();
+    int from = 0;
+    int k;
+    while( (k = key.indexOf( '\u0001', from )) >= 0 ){
+      p.append( key.substring( from, k ) );
+      w.append( key.charAt(k+1) - '0' );
+      d.append( key.charAt(k+2) - '0' - 1 );
+      from = k+3;
+    }
+    p.append( key.substring(from) );
+    parts = p.array();
+    words = w.array();
+    decimals = d.array();
+  }
+
+  boolean matches( char[] k, int n ){
+    if( key.length() != n ) return false;
+    for( int c = 0; c < n; c++ ){
+      if( key.charAt(c) != k[c] ) return false;
+    }
+    return true;
+  }
+
+  // LONGEST LINE THIS FORM CAN WRITE (a float has at most 39 whole digits)
+  int maxLength(){
+    int n = 0;
+    for( String s : parts ) n += s.length();
+    return n + words.length * 52;
+  }
+}
+
+// DRAWING STATISTICS
+class JobStats {
+  double drawn, travel; // mm
+  float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+  float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+
+  void include( float px, float py ){
+    minX = min( minX, px );
+    minY = min( minY, py );
+    maxX = max( maxX, px );
+    maxY = max( maxY, py );
+  }
+
+  String summary(){
+    String bounds = (minX > maxX) ? "EMPTY" : nf(minX,0,1) + "," + nf(minY,0,1) + " TO " + nf(maxX,0,1) + "," + nf(maxY,0,1);
+    return "DRAWN " + nf((float) (drawn/1000),0,2) + " m, TRAVEL " + nf((float) (travel/1000),0,2) + " m, BOUNDS " + bounds;
+  }
+}
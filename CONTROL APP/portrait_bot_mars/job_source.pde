@@ -0,0 +1,259 @@
+////////////////////////////////////////////////////////////////////////////////
+// JOB SOURCE
+////////////////////////////////////////////////////////////////////////////////
+// Where the stream engine pulls job lines from. An EncodedJob holds every
+// line in memory. A LazyJob reads its file while the robot draws: lines are
+// read and encoded only when the engine asks for them, and dropped again
+// once the journal no longer needs them, so the first stroke starts right
+// away and memory stays bounded however large the file is.
+//
+// Lines are encoded like EncodedJob lines: trimmed, spaces removed, '\n'
+// terminated, blank lines zero length.
+
+interface JobSource {
+  // LINE i CAN BE READ NOW, false past the end or once released
+  // A lazy source reads ahead up to it
+  boolean ready( int i );
+  // LINES READ SO FAR
+  int size();
+  // LINES IN THE JOB, -1 while not known yet
+  int total();
+  boolean isBlank( int i );
+  // ENCODED LENGTH INCLUDING '\n'
+  int length( int i );
+  byte first( int i );
+  // COPY ENCODED LINE i TO out AT at, returns its length
+  int copy( int i, byte[] out, int at );
+  String text( int i );
+  String where( int i );
+  // SHARE OF THE JOB BEFORE LINE i, 0 .. 1
+  float fraction( int i );
+  // LINES BEFORE i ARE NOT NEEDED ANY MORE
+  void release( int i );
+  // IDENTIFIES THE JOB WHEN RESUMING
+  long checksum();
+}
+
+// LAZY JOB
+// G-code file streamed from disk, framed like processGCODE(): spray off and
+// home before the file's lines and after them. Job line i is file line
+// i-1. Progress follows the byte offset, the line count is only known
+// once the whole file has been read.
+class LazyJob implements JobSource {
+  String path;
+  String name;
+  java.io.InputStream in;
+  long fileSize, fileTime;
+  long offset; // file bytes read into lines
+  long baseOffset; // file offset where line base starts
+  boolean ended; // every line is read, including the closing ones
+  int fileLines;
+  // WINDOW: lines base .. count-1 are held
+  int base, count;
+  byte[] data;
+  int[] starts; // line base+k is data[starts[k] .. starts[k+1])
+  long[] ends; // file offset after line base+k, same length as starts
+  // READING
+  byte[] chunk;
+  byte[] pending; // line read up to the end of the last chunk
+  int pendingLength;
+  boolean cr; // last chunk ended on \r
+
+  LazyJob( String f ){
+    path = f;
+    File file = new File( f );
+    name = file.getName();
+    fileSize = file.length();
+    fileTime = file.lastModified();
+    data = new byte[4096];
+    starts = new int[257];
+    ends = new long[257];
+    chunk = new byte[65536];
+    pending = new byte[256];
+    try{
+      in = new FileInputStream( file );
+    } catch( IOException e ){
+      print("ERROR - CANNOT READ " + f + ": " + e.getMessage() + "\n");
+    }
+    addLine( gSpray(false) );
+    addLine( home() );
+  }
+
+  public boolean ready( int i ){
+    while( i >= count && !ended ) fill();
+    return i >= base && i < count;
+  }
+
+  public int size(){
+    return count;
+  }
+
+  public int total(){
+    return (ended) ? count : -1;
+  }
+
+  public boolean isBlank( int i ){
+    return length(i) == 0;
+  }
+
+  public int length( int i ){
+    return starts[i-base+1] - starts[i-base];
+  }
+
+  public byte first( int i ){
+    return data[starts[i-base]];
+  }
+
+  public int copy( int i, byte[] out, int at ){
+    int n = length(i);
+    System.arraycopy( data, starts[i-base], out, at, n );
+    return n;
+  }
+
+  public String text( int i ){
+    if( i < base || i >= count || isBlank(i) ) return "";
+    return new String( data, starts[i-base], length(i)-1, java.nio.charset.StandardCharsets.US_ASCII );
+  }
+
+  // Works out the source without the window, the UI asks from its thread
+  public String where( int i ){
+    if( i < 2 || (ended && i >= 2 + fileLines) ) return "generated";
+    return name + ":" + (i-1);
+  }
+
+  public float fraction( int i ){
+    if( fileSize <= 0 ) return (ended && i >= count) ? 1 : 0;
+    long at;
+    if( i > base && i <= count ) at = ends[i-base-1];
+    else if( i > count ) at = offset;
+    else if( i == base ) at = baseOffset;
+    else at = 0;
+    return constrain( (float) at / fileSize, 0, 1 );
+  }
+
+  public void release( int i ){
+    if( i <= base ) return;
+    if( i >= count ){
+      // Nothing held, lines up to i are skipped as they are read
+      base = i;
+      baseOffset = offset;
+      starts[0] = 0;
+      return;
+    }
+    int k = i - base;
+    base = i;
+    baseOffset = ends[k-1];
+    // Compact once the released part is most of the buffer
+    int held = count - base;
+    System.arraycopy( ends, k, ends, 0, held );
+    int from = starts[k];
+    if( from > data.length / 2 ){
+      System.arraycopy( data, from, data, 0, starts[k+held] - from );
+    } else {
+      from = 0;
+    }
+    for( int n = 0; n <= held; n++ ) starts[n] = starts[k+n] - from;
+  }
+
+  public long checksum(){
+    CRC32 c = new CRC32();
+    c.update( (path + " " + fileSize + " " + fileTime).getBytes() );
+    return c.getValue();
+  }
+
+  // READ ONE CHUNK OF THE FILE INTO LINES
+  void fill(){
+    int n = -1;
+    try{
+      if( in != null ) n = in.read( chunk, 0, chunk.length );
+    } catch( IOException e ){
+      print("ERROR - READING " + path + ": " + e.getMessage() + "\n");
+    }
+    if( n < 0 ){
+      finish();
+      return;
+    }
+    int from = 0;
+    for( int k = 0; k < n; k++ ){
+      byte b = chunk[k];
+      if( cr ){
+        cr = false;
+        if( b == '\n' ){
+          from = k+1;
+          offset++;
+          continue;
+        }
+      }
+      if( b == '\n' || b == '\r' ){
+        cr = b == '\r';
+        keep( from, k );
+        offset += pendingLength + 1;
+        addFileLine();
+        from = k+1;
+      }
+    }
+    keep( from, n );
+  }
+
+  // HOLD chunk[a .. b) UNTIL ITS LINE END IS READ
+  void keep( int a, int b ){
+    int n = b - a;
+    if( pendingLength + n > pending.length ) pending = java.util.Arrays.copyOf( pending, max( pending.length * 2, pendingLength + n ) );
+    System.arraycopy( chunk, a, pending, pendingLength, n );
+    pendingLength += n;
+  }
+
+  // END OF FILE: last line without a line end, then the closing lines
+  void finish(){
+    if( pendingLength > 0 ){
+      offset += pendingLength;
+      addFileLine();
+    }
+    try{
+      if( in != null ) in.close();
+    } catch( IOException e ){
+    }
+    in = null;
+    addLine( gSpray(false) );
+    addLine( home() );
+    ended = true;
+  }
+
+  void addFileLine(){
+    fileLines++;
+    add( pending, pendingLength );
+    pendingLength = 0;
+  }
+
+  void addLine( String s ){
+    byte[] b = s.getBytes( java.nio.charset.StandardCharsets.US_ASCII );
+    add( b, b.length );
+  }
+
+  // ENCODE LINE b[0 .. len) AS THE NEXT JOB LINE
+  void add( byte[] b, int len ){
+    if( count < base ){
+      count++;
+      baseOffset = offset;
+      return;
+    }
+    int k = count - base;
+    if( k+2 > starts.length ){
+      starts = java.util.Arrays.copyOf( starts, starts.length * 2 );
+      ends = java.util.Arrays.copyOf( ends, ends.length * 2 );
+    }
+    int at = starts[k];
+    if( data.length - at < len+1 ) data = java.util.Arrays.copyOf( data, max( data.length * 2, at + len+1 ) );
+    int a = 0;
+    while( a < len && b[a] <= ' ' && b[a] >= 0 ) a++;
+    while( len > a && b[len-1] <= ' ' && b[len-1] >= 0 ) len--;
+    int e = at;
+    for( int c = a; c < len; c++ ){
+      if( b[c] != ' ' ) data[e++] = (b[c] >= 0) ? b[c] : (byte) '?';
+    }
+    if( e > at ) data[e++] = '\n';
+    starts[k+1] = e;
+    ends[k] = offset;
+    count++;
+  }
+}
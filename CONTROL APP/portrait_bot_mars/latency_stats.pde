@@ -0,0 +1,60 @@
+////////////////////////////////////////////////////////////////////////////////
+// LATENCY STATS
+////////////////////////////////////////////////////////////////////////////////
+// Fixed-size histogram of latencies with 0.1 ms buckets, for means and
+// percentiles without keeping every sample. Samples beyond the last bucket
+// are counted in it, the exact maximum is kept separately.
+
+class LatencyStats {
+  int[] buckets;
+  int count;
+  long sumNanos;
+  long maxNanos;
+
+  // range: largest latency in ms with full resolution
+  LatencyStats( int range ){
+    buckets = new int[range * 10 + 1];
+  }
+
+  void reset(){
+    for( int i = 0; i < buckets.length; i++ ) buckets[i] = 0;
+    count = 0;
+    sumNanos = 0;
+    maxNanos = 0;
+  }
+
+  void add( long nanos ){
+    if( nanos < 0 ) nanos = 0;
+    buckets[(int) Math.min( nanos / 100000, buckets.length-1 )]++;
+    count++;
+    sumNanos += nanos;
+    maxNanos = Math.max( maxNanos, nanos );
+  }
+
+  // MEAN IN ms
+  float mean(){
+    return (count == 0) ? 0 : sumNanos / 1000000.0 / count;
+  }
+
+  // MAXIMUM IN ms
+  float max(){
+    return maxNanos / 1000000.0;
+  }
+
+  // PERCENTILE IN ms (p from 0 to 100), upper edge of the bucket
+  float percentile( float p ){
+    if( count == 0 ) return 0;
+    long rank = (long) Math.ceil( count * p / 100.0 );
+    long seen = 0;
+    for( int i = 0; i < buckets.length; i++ ){
+      seen += buckets[i];
+      if( seen >= rank && seen > 0 ) return Math.min( (i+1) / 10.0, max() );
+    }
+    return max();
+  }
+
+  // ONE LINE SUMMARY
+  String summary(){
+    return "n=" + count + " mean " + nf(mean(),0,2) + " ms, p50 " + nf(percentile(50),0,1) + " ms, p95 " + nf(percentile(95),0,1) + " ms, p99 " + nf(percentile(99),0,1) + " ms, max " + nf(max(),0,1) + " ms";
+  }
+}
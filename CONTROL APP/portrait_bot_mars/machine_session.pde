@@ -0,0 +1,91 @@
+////////////////////////////////////////////////////////////////////////////////
+// MACHINE SESSION
+////////////////////////////////////////////////////////////////////////////////
+// Everything that belongs to one robot: its port, stream engine, loaded job,
+// preview and last reported status. Every session streams on its own engine
+// thread, so several robots draw at once from one process. The UI shows and
+// controls the active session (session) and can tile all of them.
+
+class MachineSession {
+  String name;
+  // SERIAL
+  volatile String portname;
+  volatile String sent;
+  volatile boolean connected;
+  volatile boolean pickPort; // take the first free port that shows up
+  boolean reconnecting; // port watcher is waiting for the port to come back
+  // STREAM ENGINE
+  StreamEngine engine;
+  StreamProgress progress;
+  // GCODE
+  String fp;
+  JobModel model;
+  SourceMap sources;
+  JobSource job;
+  PShape preview;
+  boolean loaded;
+  boolean loadedDir, loadedGcode; // how fp was loaded, for the journal
+  // LOADING (a folder load or resume offer owns the session)
+  volatile boolean loading;
+  volatile int filesTotal;
+  java.util.concurrent.atomic.AtomicInteger filesLoaded;
+  // STATUS (written by the stream engine thread)
+  volatile boolean streaming, spraying, idle;
+  volatile boolean paused;
+  volatile float posx, posy;
+
+  MachineSession( String name ){
+    this.name = name;
+    portname = null;
+    sent = "...";
+    connected = false;
+    pickPort = false;
+    reconnecting = false;
+    fp = "";
+    model = new JobModel();
+    sources = new SourceMap();
+    job = new EncodedJob();
+    preview = new PShape();
+    loaded = false;
+    loadedDir = false;
+    loadedGcode = true;
+    loading = false;
+    filesTotal = 0;
+    filesLoaded = new java.util.concurrent.atomic.AtomicInteger();
+    streaming = false;
+    spraying = false;
+    idle = false;
+    paused = false;
+    posx = 0.0;
+    posy = 0.0;
+    engine = new StreamEngine( this );
+    progress = new StreamProgress();
+  }
+
+  // EXTRACT DIMENSIONS FROM MACHINE REPORT
+  void extractDim( GrblStatus s ){
+    //Extract machine status
+    idle = (s.state == STATE_IDLE);
+    //Extract Work Position
+    posx = s.wpos[0];
+    posy = s.wpos[1];
+    //Extract Servo Position
+    spraying = (s.spindle == sprayon);
+  }
+}
+
+// ADD SESSION
+// Starts its engine thread and makes it the active session
+MachineSession addSession(){
+  MachineSession s = new MachineSession( "bot" + (sessions.size()+1) );
+  sessions.add( s );
+  s.engine.start();
+  session = s;
+  return s;
+}
+
+// SWITCH ACTIVE SESSION
+void selectSession( int i ){
+  if( i < 0 || i >= sessions.size() ) return;
+  session = sessions.get(i);
+}
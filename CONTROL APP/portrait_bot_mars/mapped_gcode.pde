@@ -0,0 +1,125 @@
+////////////////////////////////////////////////////////////////////////////////
+// MAPPED GCODE FILE
+////////////////////////////////////////////////////////////////////////////////
+// G-code file memory-mapped with NIO instead of read with loadStrings().
+// open() maps the file and finds every line start in one pass, the bytes
+// stay in the OS page cache and only the line index (4 bytes per line) is
+// on the heap. Lines are read through a reusable GcodeLine view, so
+// loading a job creates no String per line.
+//
+// Lines end at \n, \r\n or \r like loadStrings(). Bytes are read as
+// Latin-1, G-code is ASCII. A mapping holds at most 2 GB and is released
+// when it is garbage collected (the file stays locked on Windows until
+// then).
+
+class MappedGcode {
+  String path;
+  java.nio.MappedByteBuffer buf;
+  int[] starts; // line i is buf[starts[i] .. starts[i+1]) with its line end
+  int lines;
+
+  // MAP AND INDEX FILE, false if it cannot be read
+  boolean open( String f ){
+    path = f;
+    lines = 0;
+    starts = new int[1];
+    try{
+      java.nio.channels.FileChannel ch = java.nio.channels.FileChannel.open( java.nio.file.Paths.get(f), java.nio.file.StandardOpenOption.READ );
+      try{
+        long size = ch.size();
+        if( size > Integer.MAX_VALUE ){
+          print("ERROR - FILE TOO LARGE TO MAP: " + f + "\n");
+          return false;
+        }
+        buf = ch.map( java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, size );
+      } finally {
+        ch.close();
+      }
+    } catch( Exception e ){
+      print("ERROR - CANNOT READ " + f + ": " + e.getMessage() + "\n");
+      return false;
+    }
+    index();
+    return true;
+  }
+
+  // FIND LINE STARTS
+  void index(){
+    int size = buf.limit();
+    starts = new int[max(size / 32, 16)];
+    int n = 0;
+    int from = 0;
+    for( int k = 0; k < size; k++ ){
+      byte b = buf.get(k);
+      if( b == '\n' || b == '\r' ){
+        if( b == '\r' && k+1 < size && buf.get(k+1) == '\n' ) k++;
+        if( n+2 > starts.length ) starts = java.util.Arrays.copyOf( starts, starts.length * 2 );
+        starts[n++] = from;
+        from = k+1;
+      }
+    }
+    // Last line without a line end
+    if( from < size ){
+      if( n+2 > starts.length ) starts = java.util.Arrays.copyOf( starts, starts.length + 2 );
+      starts[n++] = from;
+    }
+    starts[n] = size;
+    starts = java.util.Arrays.copyOf( starts, n+1 );
+    lines = n;
+  }
+
+  int size(){
+    return lines;
+  }
+
+  // LINE i WITHOUT ITS LINE END
+  GcodeLine line( int i, GcodeLine into ){
+    int a = starts[i];
+    int b = starts[i+1];
+    if( b > a && buf.get(b-1) == '\n' ) b--;
+    if( b > a && buf.get(b-1) == '\r' ) b--;
+    return into.set( buf, a, b );
+  }
+}
+
+// LINE VIEW
+// Characters of buf[start .. end), reused from line to line
+class GcodeLine implements CharSequence {
+  java.nio.ByteBuffer buf;
+  int start, end;
+
+  GcodeLine set( java.nio.ByteBuffer b, int s, int e ){
+    buf = b;
+    start = s;
+    end = e;
+    return this;
+  }
+
+  public int length(){
+    return end - start;
+  }
+
+  public char charAt( int k ){
+    return (char) (buf.get(start + k) & 0xff);
+  }
+
+  public CharSequence subSequence( int a, int b ){
+    return new GcodeLine().set( buf, start + a, start + b );
+  }
+
+  public String toString(){
+    char[] c = new char[length()];
+    for( int k = 0; k < c.length; k++ ) c[k] = charAt(k);
+    return new String( c );
+  }
+
+  boolean contains( String s ){
+    int n = s.length();
+    for( int a = 0; a + n <= length(); a++ ){
+      int k = 0;
+      while( k < n && charAt(a+k) == s.charAt(k) ) k++;
+      if( k == n ) return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,146 @@
+////////////////////////////////////////////////////////////////////////////////
+// PLANNER MONITOR
+////////////////////////////////////////////////////////////////////////////////
+// Uses the Bf:<planner>,<rx> field of status reports to cross-check the
+// local RX byte accounting against GRBL, recover lost oks, and record how
+// full the planner stays over the course of a job.
+
+// GRBL BUFFER SIZES (serial.h / planner.h)
+int RX_BUFFER_SIZE = 128;
+int BLOCK_BUFFER_SIZE = 16;
+
+class PlannerMonitor {
+  // PLANNER OCCUPANCY HISTORY (blocks in use, one sample per report)
+  int[] history;
+  int count;
+  int stride, pending;
+  // STARVATION
+  int starvations;
+  long starvedNanos;
+  boolean starving;
+  long lastReport;
+  // DRIFT DETECTION
+  int lastAcks;
+  long lastSent; // send time of the newest line in flight at the last report
+  int suspect;
+  int lostAcks;
+
+  PlannerMonitor( int samples ){
+    history = new int[samples];
+    reset();
+  }
+
+  void reset(){
+    count = 0;
+    stride = 1;
+    pending = 0;
+    starvations = 0;
+    starvedNanos = 0;
+    starving = false;
+    lastReport = 0;
+    lastAcks = 0;
+    lastSent = 0;
+    suspect = 0;
+    lostAcks = 0;
+  }
+
+  // PLANNER BLOCKS IN USE
+  int plannerUsed( GrblStatus s ){
+    return max( 0, (BLOCK_BUFFER_SIZE-1) - s.bfPlanner );
+  }
+
+  // GRBL RX BYTES IN USE
+  int rxUsed( GrblStatus s ){
+    return max( 0, (RX_BUFFER_SIZE-1) - s.bfRx );
+  }
+
+  // UPDATE FROM STATUS REPORT
+  // acks: total oks/errors received so far, active: job still has lines
+  // Returns the number of acks found to be lost, 0 if accounting agrees
+  int update( GrblStatus s, RxBuffer rx, int acks, boolean active, long now ){
+    if( !s.hasBf ) return 0;
+    int used = plannerUsed(s);
+    record(used);
+
+    // Starvation: machine drawing with an empty planner while lines remain
+    boolean starved = active && used == 0 && s.state == STATE_RUN;
+    if( starved && !starving ) starvations++;
+    if( starving && lastReport > 0 ) starvedNanos += now - lastReport;
+    starving = starved;
+    lastReport = now;
+
+    // Drift: GRBL has nothing left in RX or the planner, no ack arrived
+    // since the last report, yet lines are still counted as in flight.
+    // Two reports in a row rule out oks that were simply still in transit.
+    // A report that arrives after a line was sent may have been taken
+    // before the line reached GRBL, so it starts the count over.
+    boolean drained = rxUsed(s) == 0 && used == 0 && s.state == STATE_IDLE;
+    long sent = rx.newestTime();
+    boolean quiet = sent == lastSent;
+    lastSent = sent;
+    if( drained && !rx.isEmpty() && acks == lastAcks && quiet ){
+      suspect++;
+    } else {
+      suspect = 0;
+    }
+    lastAcks = acks;
+    if( suspect < 2 ) return 0;
+    suspect = 0;
+    int lost = rx.size();
+    lostAcks += lost;
+    return lost;
+  }
+
+  // RECORD SAMPLE
+  // When the history fills up, pairs are merged (keeping the peak) and the
+  // sample stride doubles, so the chart always covers the whole job
+  void record( int v ){
+    if( pending > 0 ){
+      history[count-1] = max( history[count-1], v );
+      pending--;
+      return;
+    }
+    if( count == history.length ){
+      for( int i = 0; i < count/2; i++ ){
+        history[i] = max( history[2*i], history[2*i+1] );
+      }
+      count /= 2;
+      stride *= 2;
+    }
+    history[count++] = v;
+    pending = stride - 1;
+  }
+
+  // COPY HISTORY FOR UI
+  int copyHistory( int[] out ){
+    int n = min( count, out.length );
+    arrayCopy( history, 0, out, 0, n );
+    return n;
+  }
+}
+
+// DISPLAY PLANNER OCCUPANCY CHART
+void displayPlanner( float x, float y, float w, float h ){
+  noFill();
+  stroke(charcoal);
+  strokeWeight(1);
+  rect(x, y, w, h);
+
+  int n = session.progress.plannerSamples;
+  if( n > 1 ){
+    stroke(green);
+    for( int i = 1; i < n; i++ ){
+      float x0 = x + w * (i-1) / (n-1);
+      float x1 = x + w * i / (n-1);
+      float y0 = y + h - h * session.progress.planner[i-1] / (BLOCK_BUFFER_SIZE-1);
+      float y1 = y + h - h * session.progress.planner[i] / (BLOCK_BUFFER_SIZE-1);
+      line(x0, y0, x1, y1);
+    }
+  }
+
+  noStroke();
+  fill(white);
+  textAlign(LEFT);
+  textFont(font12,12);
+  text("PLANNER  STARVED: " + session.progress.starvations + "x / " + nf(session.progress.starvedMillis/1000.0,0,1) + "s  LOST ACKS: " + session.progress.lostAcks, x+5, y+14);
+}
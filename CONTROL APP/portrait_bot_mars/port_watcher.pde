@@ -0,0 +1,163 @@
+////////////////////////////////////////////////////////////////////////////////
+// PORT WATCHER
+////////////////////////////////////////////////////////////////////////////////
+// Background thread that keeps every session connected. It lists the serial
+// ports every portPoll ms, notices when a robot's port is unplugged or comes
+// back, reopens it, waits for the Grbl banner and re-syncs with a status
+// query. Serial.list() and opening ports never run on the animation thread,
+// events and resume offers reach the UI through postEvent() and
+// postResume().
+
+class PortWatcher implements Runnable {
+  Thread thread;
+  volatile boolean running;
+  volatile String[] ports; // last scan
+  boolean scanned;
+  java.util.concurrent.ConcurrentLinkedQueue<String> events;
+  java.util.concurrent.ConcurrentLinkedQueue<MachineSession> resumes;
+
+  PortWatcher(){
+    ports = new String[0];
+    events = new java.util.concurrent.ConcurrentLinkedQueue<String>();
+    resumes = new java.util.concurrent.ConcurrentLinkedQueue<MachineSession>();
+  }
+
+  // START WATCHER THREAD
+  void start(){
+    if( thread != null ) return;
+    running = true;
+    thread = new Thread( this, "port-watcher" );
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  // CHECK NOW instead of at the next poll
+  void wake(){
+    if( thread != null ) java.util.concurrent.locks.LockSupport.unpark( thread );
+  }
+
+  public void run(){
+    while( running ){
+      scan();
+      for( MachineSession m : sessions ) check( m );
+      java.util.concurrent.locks.LockSupport.parkNanos( portPoll * 1000000L );
+    }
+  }
+
+  // LIST SERIAL PORTS
+  // Reports ports that appeared or disappeared since the last scan
+  synchronized void scan(){
+    String[] now;
+    try{
+      now = Serial.list();
+    } catch( Exception e ){
+      return;
+    }
+    if( scanned ){
+      for( String p : now ) if( !listed( ports, p ) ) postEvent( null, "PORT FOUND: " + p );
+      for( String p : ports ) if( !listed( now, p ) ) postEvent( null, "PORT LOST: " + p );
+    }
+    ports = now;
+    scanned = true;
+  }
+
+  // SERIAL PORTS NO SESSION IS USING
+  String[] freePorts(){
+    StringList free = new StringList();
+    for( String p : ports ){
+      boolean used = false;
+      for( MachineSession m : sessions ) used |= m.portname != null && p.equals( portBase( m.portname ) );
+      if( !used ) free.append( p );
+    }
+    return free.array();
+  }
+
+  // KEEP ONE SESSION CONNECTED
+  // Sessions without a port name were disconnected by the operator and
+  // are left alone, unless they are waiting for any port to show up
+  void check( MachineSession m ){
+    if( m.portname == null ){
+      String[] free = freePorts();
+      if( m.pickPort && free.length > 0 ){
+        m.portname = free[0];
+        m.pickPort = false;
+      } else {
+        return;
+      }
+    }
+    boolean present = !isSerialPort( m.portname ) || listed( ports, portBase( m.portname ) );
+    if( m.connected && !present ){
+      m.engine.lost();
+      postEvent( m, "UNPLUGGED: " + m.portname );
+    } else if( !m.connected && present ){
+      connect( m );
+    }
+  }
+
+  // CONNECT SESSION AND OFFER TO RESUME ITS JOB
+  void connect( MachineSession m ){
+    String name = m.portname;
+    if( !open( m ) ){
+      if( !m.reconnecting ) postEvent( m, "WAITING FOR " + name );
+      m.reconnecting = true;
+      return;
+    }
+    if( !name.equals( m.portname ) ){
+      m.engine.detach();
+      return;
+    }
+    m.connected = true;
+    m.reconnecting = false;
+    String banner = m.engine.banner;
+    postEvent( m, "CONNECTED ON " + name + ((banner != null) ? " (" + banner + ")" : " (NO GRBL BANNER)") );
+    postResume( m );
+  }
+
+  // OPEN PORT AND WAIT FOR GRBL
+  // Opening a USB serial port resets the Arduino, which answers with its
+  // banner once it has booted. Links that do not reset it stay silent, so
+  // after bannerTimeout they are used anyway. Returns false if the port
+  // could not be opened.
+  boolean open( MachineSession m ){
+    Transport port = createTransport( m.portname );
+    if( !port.open() ) return false;
+    m.engine.attach( port );
+    m.engine.awaitBanner( bannerTimeout );
+    // Re-sync: fresh status before the operator or a resume acts on it
+    m.engine.sendByte( report() );
+    return true;
+  }
+}
+
+// SERIAL PORT NAME
+// Other transports are not listed by Serial.list() and are simply retried
+boolean isSerialPort( String name ){
+  name = portBase( name );
+  return !( name.startsWith("tcp://") || name.startsWith("pty:") || name.equals("loopback") || name.equals("sim") || name.startsWith("sim:") );
+}
+
+boolean listed( String[] list, String name ){
+  for( String s : list ) if( s.equals( name ) ) return true;
+  return false;
+}
+
+// UI EVENTS
+// Connection events from background threads, printed at once and shown by
+// the animation thread in checkEvents()
+void postEvent( MachineSession m, String text ){
+  String e = (m == null) ? text : m.name.toUpperCase() + ": " + text;
+  println( e );
+  watcher.events.add( e );
+}
+
+// ASK THE UI TO OFFER RESUMING A SESSION'S JOB
+void postResume( MachineSession m ){
+  watcher.resumes.add( m );
+}
+
+void checkEvents(){
+  String e;
+  while( (e = watcher.events.poll()) != null ) notice = e;
+  MachineSession m;
+  while( (m = watcher.resumes.poll()) != null ) resumeAsync( m );
+}
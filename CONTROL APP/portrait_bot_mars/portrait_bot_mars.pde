@@ -16,48 +16,58 @@ import javax.swing.JOptionPane; //Interface for COM port selection
 //------------------------------------------------------------------------------
 // DEBUG
 Boolean VERBOSE = false; //default: false -- if enabled, print all responses from GRBL
-Boolean SIMPLE_MODE = false; //default: false (buffer-fill mode) / true (line-response mode)
-int reportFreq = 5; //
+int BAUD_RATE = 115200; //default: 115200 -- must match BAUD_RATE in GRBL's config.h, a port name can override it with @<baud>
+int PIPELINE_DEPTH = 0; //default: 0 (character counting) / 1..N lines outstanding while they fit in the RX buffer (send-response, 1 = wait for every ok)
+Boolean PLANNER_SYNC = true; //default: true -- resync buffer accounting from Bf: status field
+Boolean LINE_NUMBERS = false; //default: false -- tag streamed lines with N<line>, read back from Ln: status field
+int ERROR_POLICY = ERROR_PAUSE; //on error:N -- ERROR_PAUSE (hold for operator) / ERROR_SKIP / ERROR_RETRY (only while nothing was sent after the line, e.g. PIPELINE_DEPTH 1, else pauses)
+int errorRetries = 2; //resends of a failed line before ERROR_RETRY falls back to pausing
+int reportActive = 50; //ms between realtime status reports while moving or streaming
+int reportHold = 250; //ms between realtime status reports while held, alarmed or unknown
+int reportIdle = 1000; //ms between realtime status reports while idle (heartbeat)
+int sprayOffDelay = 2000; //ms idle without acks before the spray is shut off
+int stallTimeout = 20000; //ms idle without acks before the stream is cancelled
+int journalSync = 500; //ms between synced checkpoints in the job journal (data/journal-<bot>.txt)
+int portPoll = 1000; //ms between serial port scans for unplugged / replugged robots
+int bannerTimeout = 3000; //ms to wait for the Grbl banner after opening a port
+int lazyLoad = 64; //MB -- larger G-code files are read from disk while drawing, without preview (0 = always)
 // IO
 Boolean type_gcode = true;
 Boolean load_dir = true;
-String fp = "";
 // UX
 ControlP5 cP5;
 PFont font24, font18, font16i, font14, font12;
 color black, white, grey, charcoal, green, red, blue;
 PVector origin;
 float scalar;
-PShape preview;
-// GCODE
-StringList gcode;
-int line;
-int issued, completed;
+Boolean tiled;
 // MACHINE
-float posx, posy, lastx, lasty, spray_speed;
+float lastx, lasty, spray_speed;
 float canvas_width, canvas_height, canvas_margin;
 int sprayoff = 10;
 int sprayon = 110;
 // STATUS
-String status;
-Boolean streaming, spraying, paused, loaded, idle;
-String versionPattern = "Grbl*";
-String startupPattern = ">*:ok";
-String statusPattern = "<*>";
-String okPattern = "*ok*";
-String errorPattern = "*error*";
-String CMD_VERSION, CMD_STARTUP, CMD_STATUS, CMD_OK, CMD_ERROR;
 Boolean match;
-// STREAM MODE
-IntList c_line;
+// MACHINE SESSIONS (one per robot, the UI shows and controls the active one)
+java.util.concurrent.CopyOnWriteArrayList<MachineSession> sessions;
+MachineSession session;
 // SERIAL
-Serial port;
-String portname;
-String val, sent;
-String lastSent;
-Boolean connected;
-int r = 0;
-int timeout = 0;
+String defaultPort = null; //optional fixed port for the first robot, skips selection: COM3, tcp://host:port, pty:/dev/pts/4, loopback
+String val;
+String notice;
+PortWatcher watcher;
+MachineSession choosing;
+
+// ENTRY POINT
+//------------------------------------------------------------------------------
+// With --run the sketch streams from the command line without a window
+static public void main( String[] args ){
+  if( args.length > 0 && args[0].equals("--run") ){
+    portrait_bot_mars bot = new portrait_bot_mars();
+    System.exit( bot.runHeadless( subset(args, 1) ) );
+  }
+  PApplet.main( concat( new String[]{ "portrait_bot_mars" }, args ) );
+}
 
 // SETUP
 //------------------------------------------------------------------------------
@@ -65,7 +75,6 @@ void setup() {
   settings(); //INITIALIZE WINDOW SIZE
 
   initVariables(); //INITIALIZE SYSTEM VARIABLES
-  initPatterns(); //INITIALIZE MESSAGE PATTERNS
 
   initFonts(); //INITIALIZE UX FONTS
   initColors(); //INITIALIZE UX COLORS
@@ -73,43 +82,21 @@ void setup() {
   initPreview( ); //INITIALIZE GCODE PREVIEW
 
   setupControls(); //GENERATE UX
+  watcher.start(); //START PORT WATCHER THREAD
   selectSerial(); //ATTEMPT TO CONNECT TO SERIAL
 }
 
 // DRAW
 //------------------------------------------------------------------------------
 void draw(){
+  checkEvents(); // PICK UP CONNECTION EVENTS
   displayUI(); // DRAW UI
-  renderPreview( ); // DRAW GCODE PREVIEW
+  if( tiled ) renderTiles(); // DRAW EVERY ROBOT SIDE BY SIDE
+  else renderPreview( ); // DRAW GCODE PREVIEW
   displayStats(); // DISPLAY DRAWING STATUS
   checkStatus(); // UPDATE BUTTONS BY STATE
-
-  // REALTIME STATUS REPORTING
-  if(connected && r>reportFreq){
-    statusReport();
-    r = 0;
-  }
-  r++;
-
-  if (connected) serialRun(); // CHECK SERIAL FOR UPDATES
-  renderNozzle(); // DRAW NOZZLE ON PREVIEW
-
-  // TIMEOUT IF SYSTEM HANGS
-  // FIRST SHUTS OFF SPRAY
-  // THEN CANCELS STREAM AND GOES HOME
-  if( idle && spraying && timeout > 120 ){
-    send( gSpray(false) );
-  }
-  if( idle && streaming ){
-    timeout++;
-    if ( timeout > 1200 ){
-      print("TIMED OUT, GOING HOME\n");
-      streaming = false;
-      line = 0;
-      timeout = 0;
-      send( home() );
-    }
-  }
+  if( !tiled ) renderNozzle(); // DRAW NOZZLE ON PREVIEW
+  // Status polling and timeouts run on the stream engine thread (watchdog)
 }
 
 // SETTINGS
@@ -124,71 +111,21 @@ void initVariables(){
   // UX
   origin = new PVector(950,350);
   scalar = 0.5;
-  // GCODE
-  gcode = new StringList();
-  line = 0;
-  issued = 0;
-  completed = 0;
+  tiled = false;
   // MACHINE
-  posx = 0.0;
-  posy = 0.0;
-  status = "[...]";
   spray_speed = 5000.0;
   canvas_width = 1220.0;
   canvas_height = 1220.0;
   canvas_margin = 10.0;
   //STATUS
-  streaming = false;
-  spraying = false;
-  paused = false;
-  loaded = false;
   match = false;
-  idle = false;
-  //STREAM MODE
-  c_line = new IntList();
   // SERIAL
-  port = null;
-  portname = null;
   val = "...";
-  sent = "...";
-  connected = false;
-  lastSent = "";
-}
-
-void initPatterns(){
-  CMD_VERSION = versionPattern.replaceAll(".","[$0]").replace("[*]",".*");
-  CMD_STARTUP = startupPattern.replaceAll(".","[$0]").replace("[*]",".*");
-  CMD_STATUS = statusPattern.replaceAll(".","[$0]").replace("[*]",".*");
-  CMD_OK = okPattern.replaceAll(".","[$0]").replace("[*]",".*");
-  CMD_ERROR = errorPattern.replaceAll(".","[$0]").replace("[*]",".*");
-
-}
-
-// PARSE NUMBER FROM GCODE STRING
-// Used to extract numerical values from GCode
-float parseNumber(String s, String c, float f){
-  String num = "-.0123456789";
-  c = c.toUpperCase();
-  s = s.toUpperCase();
-  int start = s.indexOf(c);
-  if( start < 0 ) return f;
-  int end = start+1;
-  for( int i = start+1; i < s.length(); i++){
-    char k = s.charAt(i);
-    if( Character.isLetter(k) || k == ' ') break;
-    end = i;
-  }
-  return float( s.substring(start+1,end+1) );
-}
-
-// SUMS IntList
-// Sums contents of an IntList (used in available buffer tracking)
-int sumList(IntList w){
-  int sum = 0;
-  for(int i = 0; i<w.size();i++){
-    sum += w.get(i);
-  }
-  return sum;
+  notice = "";
+  watcher = new PortWatcher();
+  // SESSIONS
+  sessions = new java.util.concurrent.CopyOnWriteArrayList<MachineSession>();
+  addSession(); //STARTS STREAM ENGINE THREAD
 }
 
 ////////////////////////////////////////////////////////////////////////////////
@@ -197,29 +134,30 @@ int sumList(IntList w){
 
 // INITIALIZE GCODE PREVIEW
 void initPreview(){
-  preview = new PShape();
+  session.preview = new PShape();
 }
 
 // RENDER PREVIEW TO CANVAS
 void renderPreview(){
-  if( preview == null ) return;
-  preview.enableStyle();
-  shape(preview, origin.x - (canvas_width*0.5*scalar), origin.y+(canvas_height*0.5*scalar));
+  if( session.preview == null ) return;
+  session.preview.enableStyle();
+  shape(session.preview, origin.x - (canvas_width*0.5*scalar), origin.y+(canvas_height*0.5*scalar));
 }
 
 // GENERATE PREVIEW
-void generatePreview(StringList g){
-  preview = new PShape();
+// Shapes carry their own style, so a preview can be built off the
+// animation thread
+PShape generatePreview(JobModel m){
+  PShape preview = new PShape();
   PVector last = new PVector(0,0);
   int type;
   color c;
   float o;
   float w;
 
-  for(int i = 0; i<g.size(); i++){
-    String cmd = g.get(i);
-    type = int(parseNumber(cmd,"G",-1));
-    if( type < 0 ) continue;
+  for(int i = 0; i<m.size(); i++){
+    type = m.op[i];
+    if( type > OP_G4 ) continue;
 
     // COLOR, LINEWEIGHT, OPACITY SETTINGS
     c = (type==0||type==4) ? blue : red;
@@ -229,32 +167,39 @@ void generatePreview(StringList g){
     switch(type){
       case 0:
       case 1:
-        renderLine(last, cmd, c, o, w);
+        renderLine(preview, last, m, i, c, o, w);
         break;
       case 2:
       case 3:
-        renderArc(last, cmd, type, c, o, w);
+        renderArc(preview, last, m, i, type, c, o, w);
         break;
       case 4:
-        renderPoint(last, c, o, w);
+        renderPoint(preview, last, c, o, w);
         break;
       default:
         break;
     }
   }
+  return preview;
+}
+
+// STROKE A PREVIEW SHAPE
+void styleShape( PShape s, color c, float o, float w ){
+  s.setFill(false);
+  s.setStroke(true);
+  s.setStroke( (c & 0xffffff) | (int(o) << 24) );
+  s.setStrokeWeight(w);
 }
 
 // RENDER LINE
 // Visualizes GCODE line command (G0/G1)
-void renderLine(PVector l, String cmd, color c, float o, float w ){
+void renderLine(PShape preview, PVector l, JobModel m, int i, color c, float o, float w ){
   PShape ln;
-  float x = parseNumber(cmd,"X",l.x);
-  float y = parseNumber(cmd,"Y",l.y);
-  noFill();
-  stroke(c,o);
-  strokeWeight(w);
+  float x = m.get(i,W_X,l.x);
+  float y = m.get(i,W_Y,l.y);
   ln = createShape( LINE, l.x*scalar, -l.y*scalar, x*scalar, -y*scalar );
   // line(origin.x+l.x*scalar, origin.y-l.y*scalar,origin.x+x*scalar, origin.y-y*scalar);
+  styleShape( ln, c, o, w );
   preview.addChild( ln );
   l.x = x;
   l.y = y;
@@ -262,13 +207,13 @@ void renderLine(PVector l, String cmd, color c, float o, float w ){
 
 // RENDER ARC
 // Visualizes GCODE arc command (G2/G3)
-void renderArc( PVector l, String cmd, int dir, color c, float o, float w ){
+void renderArc( PShape preview, PVector l, JobModel m, int i, int dir, color c, float o, float w ){
   PShape a;
 
-  float cx = parseNumber(cmd, "I", 0.0)+l.x;
-  float cy = parseNumber(cmd, "J", 0.0)+l.y;
-  float x = parseNumber(cmd, "X", l.x);
-  float y = parseNumber(cmd, "Y", l.y);
+  float cx = m.get(i, W_I, 0.0)+l.x;
+  float cy = m.get(i, W_J, 0.0)+l.y;
+  float x = m.get(i, W_X, l.x);
+  float y = m.get(i, W_Y, l.y);
   float dx2 = l.x - cx;
   float dy2 = l.y - cy;
   float dx1 = x - cx;
@@ -285,15 +230,12 @@ void renderArc( PVector l, String cmd, int dir, color c, float o, float w ){
     SA += TWO_PI;
   }
 
-  noFill();
-  stroke(c,o);
-  strokeWeight(w);
-
   if( dir == 2){
     a = createShape(ARC, cx*scalar, -cy*scalar, r*2*scalar, r*2*scalar, EA, SA);
   } else {
     a = createShape(ARC, cx*scalar, -cy*scalar, r*2*scalar, r*2*scalar, SA, EA);
   }
+  styleShape( a, c, o, w );
   preview.addChild(a);
   l.x = x;
   l.y = y;
@@ -301,11 +243,10 @@ void renderArc( PVector l, String cmd, int dir, color c, float o, float w ){
 
 // RENDER POINT
 // Visualizes GCODE dwell command (G4)
-void renderPoint( PVector l, color c, float o, float w){
+void renderPoint( PShape preview, PVector l, color c, float o, float w){
   PShape p;
-  stroke(c,o);
-  strokeWeight(w*3);
   p = createShape(POINT, l.x*scalar, -l.y*scalar);
+  styleShape( p, c, o, w*3 );
   preview.addChild(p);
 }
 
@@ -313,100 +254,120 @@ void renderPoint( PVector l, color c, float o, float w){
 // SERIAL COMMUNICATION
 ////////////////////////////////////////////////////////////////////////////////
 
-// OPEN SERIAL PORT
-void openSerial(){
-  if( portname == null ){
-    connected = false;
+// OFFER TO RESUME AN INTERRUPTED JOB
+// Reloads the job from the path in the journal, the way it was loaded,
+// unless the same job is already loaded, then streams from the last
+// checkpoint. Blocks on the dialog and the reload, see resumeAsync(), so
+// a job started meanwhile wins over the resume.
+void offerResume( MachineSession m ){
+  JobJournal j = m.engine.journal;
+  if( m.streaming || !j.recover() ) return;
+  int choice = JOptionPane.showConfirmDialog(
+    null,
+    "Resume " + new File(j.savedPath).getName() + " from line " + (j.savedFrom+1) + " of " + j.savedLines + " on " + m.name.toUpperCase() + "?\n" +
+    "Check the nozzle position (home / set origin) first.",
+    "Resume drawing",
+    JOptionPane.YES_NO_OPTION
+  );
+  if( choice != JOptionPane.YES_OPTION ){
+    j.discard();
     return;
   }
-  if( port != null ) port.stop();
-  try{
-    port = new Serial(this, portname, 115200);
-    port.bufferUntil('\n');
-    connected = true;
-  } catch( Exception e){
-    closeSerial();
-    println("DISCONNECTED: NO SERIAL CONNECTION AVAILABLE");
+  if( m.streaming ){
+    print("NO RESUME ON " + m.name.toUpperCase() + ", A JOB WAS STARTED\n");
+    return;
   }
+  // A job read while drawing is always reopened from the start of its file
+  if( j.savedLines < 0 || m.job.total() != j.savedLines || m.job.checksum() != j.savedCrc ){
+    if( j.savedDir ){
+      if( loadFolderJob( m, new File(j.savedPath), j.savedGcode ) ) folderLoaded( m );
+    } else {
+      if( loadFileJob( m, new File(j.savedPath), j.savedGcode ) ) fileLoaded( m );
+    }
+  }
+  if( m.job.total() != j.savedLines || m.job.checksum() != j.savedCrc ){
+    print("RESUME FAILED: " + j.savedPath + " HAS CHANGED\n");
+    return;
+  }
+  if( m.streaming ){
+    print("NO RESUME ON " + m.name.toUpperCase() + ", A JOB WAS STARTED\n");
+    return;
+  }
+  m.engine.resume( m.job, j.savedFrom, j.savedModal );
+  m.streaming = true;
+}
+
+// OFFER TO RESUME ON ITS OWN THREAD
+// The port watcher posts the request, the UI picks it up here. The
+// dialog and the reload hold up neither the window nor reconnecting the
+// other robots, and the session is kept from loading anything else
+// meanwhile. The dialog names the robot, the active one stays as it is.
+void resumeAsync( final MachineSession m ){
+  if( m.loading ){
+    print("NO RESUME OFFER FOR " + m.name.toUpperCase() + ", STILL LOADING\n");
+    return;
+  }
+  m.loading = true;
+  m.filesTotal = 0;
+  new Thread( new Runnable(){
+    public void run(){
+      try{
+        offerResume( m );
+      } finally {
+        m.filesTotal = 0;
+        m.loading = false;
+      }
+    }
+  }, "resume-" + m.name ).start();
 }
 
 // RESET ALL SERIAL VARIABLES
 void closeSerial(){
-  portname = null;
-  connected = false;
-  port = null;
+  session.portname = null;
+  session.pickPort = false;
+  session.reconnecting = false;
+  session.connected = false;
+  session.engine.detach();
 }
 
 // SELECT SERIAL PORT TO OPEN
+// The port watcher opens it in the background and reopens it after a drop
 void selectSerial(){
-  int s = Serial.list().length;
-  if( s == 0 ){
-    JOptionPane.showMessageDialog(null, "No Arduino Connected");
+  if( defaultPort != null && session == sessions.get(0) ){
+    session.portname = defaultPort;
+    watcher.wake();
+    return;
+  }
+  choosing = session;
+  thread("choosePort");
+}
+
+// ASK FOR SERIAL PORT
+// Runs on its own thread so the dialog does not stop the UI. With no free
+// port the session takes the first one that is plugged in.
+void choosePort(){
+  MachineSession m = choosing;
+  watcher.scan();
+  String[] free = watcher.freePorts();
+  if( free.length == 0 ){
+    m.pickPort = true;
+    postEvent( m, "NO ARDUINO CONNECTED, WAITING FOR ONE" );
     return;
   }
-  if( s > 1){
+  if( free.length > 1){
     String result = (String) JOptionPane.showInputDialog(
       null,
       "Select the serial port connected to Arduino",
       "Select serial port",
       JOptionPane.PLAIN_MESSAGE,
       null,
-      Serial.list(),
+      free,
       0
     );
-    if( result != null ) portname = result;
-  }
-  else portname = Serial.list()[0];
-  openSerial();
-}
-
-// UPDATE SERIAL CONNECTION & CHECK FOR DATA
-void serialRun(){
-  if(port.available() > 0){
-    String temp = port.readStringUntil('\n');
-    if(temp == null) return;
-    temp = temp.trim();
-
-    if(temp.matches(CMD_VERSION)){
-      if(VERBOSE) print("[STARTUP] "+temp+"\n");
-      return;
-    }
-    if(temp.matches(CMD_STARTUP)){
-      if(VERBOSE) print("[STARTUP] "+temp+"\n");
-      return;
-    }
-    if(temp.matches(CMD_STATUS)){
-      status = temp;
-      extractDim();
-      return;
-    }
-    if(temp.matches(CMD_ERROR)){
-      print("[ERROR] " + temp +"\n");
-      print("[SENT] " + sent + "\n");
-      return;
-    }
-
-    if(SIMPLE_MODE){
-      if( temp.matches(CMD_OK) ){
-        if(VERBOSE) print("[RX] "+temp+"\n");
-        line++;
-        completed++;
-        timeout = 0;
-      }
-    }
-    else {
-      if( temp.matches(CMD_OK)){
-        if(VERBOSE) print("[RX] "+temp+"\n");
-        if(c_line.size()>0){
-          c_line.remove(0);
-          completed++;
-        }
-        timeout = 0;
-      }
-    }
+    if( result != null ) m.portname = result;
   }
-  //SEND GCODE
-  stream();
+  else m.portname = free[0];
+  watcher.wake();
 }
 
 // REQUEST MACHINE POSITION REPORT
@@ -414,93 +375,36 @@ void statusReport(){
   sendByte( report() );
 }
 
-// EXTRACT DIMENSIONS FROM MACHINE REPORT
-void extractDim(){
-  String[] temp_stat = status.substring(1,status.length()-1).split("\\|");
-  //Extract machine status
-  idle = temp_stat[0].contains("Idle");
-  //Extract Work Position
-  String[] temp_pos = temp_stat[1].substring(5).split(",");
-  posx = float(temp_pos[0]);
-  posy = float(temp_pos[1]);
-  //Extract Servo Position
-  int servoPos = int( temp_stat[3].substring(4).split(",")[1] );
-  spraying = (servoPos == sprayon );
-  //Format status message for UX
-  status = join(subset(temp_stat,0,4), " | ");
-}
-
 // SERIAL SEND
+// Commands are handed to the stream engine, which owns the port
 void send( String cmd ){
-  if(!connected) return;
-  cmd = cmd.trim().replace(" ","");
-  sent = cmd;
-  port.write(cmd + "\n");
-
-  if( VERBOSE ) print("SENT: " + cmd + '\n');
+  if(!session.connected) return;
+  session.engine.send( cmd );
 }
 
 // SERIAL SEND BYTE
 void sendByte( Byte b ){
-  if(!connected) return;
-  port.write( b );
-  if(VERBOSE) sent = str(char(b));
-}
-
-// RESET SERIAL STREAM STATUS
-void resetStatus(){
-  line = 0;
-  issued = 0;
-  completed = 0;
-  c_line = new IntList();
-}
-
-// SERIAL STREAM
-void stream(){
-  if(!connected || !streaming) return;
-
-  while(true){
-    if( line >= gcode.size() || line < 0 ){
-      if( line>0 ){
-        print("COMPLETED STREAMING\n");
-        //streaming = false;
-        line = -1;
-      } else if ( c_line.size() == 0 ) {
-        print("DRAWING FINISHED\n");
-        streaming = false;
-        resetStatus();
-      }
-      return;
-    }
-    if( gcode.get(line).trim().length() == 0 ){
-      line++;
-      continue;
-    }
-    else break;
-  }
+  if(!session.connected) return;
+  session.engine.sendByte( b );
+}
 
-  String cmd = gcode.get(line).trim().replace(" ","");
-  if(SIMPLE_MODE){
+// LIVE OVERRIDES
+// Realtime bytes, so they act on lines already queued in GRBL and can be
+// used while streaming. GRBL reports the active values in Ov:
+// FEED: step 0 (reset to 100%), +10, -10, +1, -1 -- range 10..200%
+void overrideFeed( int step ){
+  sendByte( gFeedOverride(step) );
+}
 
-    if( !lastSent.contains(cmd) ){
-      port.write( cmd + "\n" );
-      issued++;
-      lastSent = cmd;
-      print("SENT "+line+": "+cmd+" : ");
-      sent = cmd;
-    }
-  } else {
-    if(VERBOSE) print( str(127 - sumList(c_line)) + " BYTES AVAILABLE\n" );
-    if( sumList(c_line) + (cmd.length()+1) <= 127 ){
-      c_line.append( cmd.length()+1 );
-      port.write(cmd + "\n");
-      issued++;
-      lastSent = cmd;
-      line++;
-      print("SENT "+line+": "+cmd+"\n");
-      sent = cmd;
-    }
-  }
+// RAPID: 100, 50 or 25 percent
+void overrideRapid( int percent ){
+  sendByte( gRapidOverride(percent) );
+}
+
+// SPRAY (spindle): step 0 (reset to 100%), +10, -10, +1, -1 -- range 10..200%
+// Scales the servo S value, including the spray off position
+void overrideSpray( int step ){
+  sendByte( gSprayOverride(step) );
 }
 
 ////////////////////////////////////////////////////////////////////////////////
@@ -544,8 +448,8 @@ String jog(float x, float y){
 
 // SET ORIGIN
 String origin(){
-  posx = 0.0;
-  posy = 0.0;
+  session.posx = 0.0;
+  session.posy = 0.0;
   return "G10 P1 L20 X0 Y0";
 }
 // GO HOME
@@ -569,6 +473,35 @@ Byte gResume(){
   return byte(0x7e);
 }
 
+// FEED OVERRIDE: 0 reset, +10, -10, +1, -1
+Byte gFeedOverride( int step ){
+  switch( step ){
+    case 10: return byte(0x91);
+    case -10: return byte(0x92);
+    case 1: return byte(0x93);
+    case -1: return byte(0x94);
+    default: return byte(0x90);
+  }
+}
+
+// RAPID OVERRIDE: 100, 50, 25 percent
+Byte gRapidOverride( int percent ){
+  if( percent <= 25 ) return byte(0x97);
+  if( percent <= 50 ) return byte(0x96);
+  return byte(0x95);
+}
+
+// SPINDLE (SPRAY) OVERRIDE: 0 reset, +10, -10, +1, -1
+Byte gSprayOverride( int step ){
+  switch( step ){
+    case 10: return byte(0x9A);
+    case -10: return byte(0x9B);
+    case 1: return byte(0x9C);
+    case -1: return byte(0x9D);
+    default: return byte(0x99);
+  }
+}
+
 // PARK (GO TO MACHINE ZERO)
 String park(){
   return "G53 X0 Y0";
@@ -587,30 +520,13 @@ void loadFolder(){
   selectFolder("Select a folder of drawings to load:", "folderSelected");
 }
 
+// Folders load in the background, see folder_loader
 void folderSelected( File f ){
   if( f == null ){
     print("Window closed or user cancelled\n");
     return;
   }
-  fp = f.getAbsolutePath();
-  print("User selected " + fp + "\n");
-  String[] files = listFiles(fp);
-  if( files == null || !checkDir(files,((type_gcode)?"txt":"json"))){
-    loaded = false;
-    fp = "";
-    print( ((files==null)?"ERROR--EMPTY OR INVALID DIRECTORY\n":"ERROR--NO JSON DRAWING FILES IN DIRECTORY\n"));
-    return;
-  }
-  loaded = true;
-  gcode = (type_gcode) ? processGCODEs( files ) : processJSONs( files );
-  if( gcode.size() > 0 ){
-    print("DRAWINGS LOADED\n");
-    print("GCODE LINES GENERATED: " + gcode.size() + "\n");
-    generatePreview(gcode);
-    print("GCODE PREVIEW GENERATED\n");
-    saveStrings( "data/gcode.txt", gcode.array() );
-  }
-  line = 0;
+  loadFolderAsync( session, f, type_gcode );
 }
 
 void fileSelected( File f ){
@@ -618,18 +534,82 @@ void fileSelected( File f ){
     print("Window closed or user cancelled\n");
     return;
   }
-  fp = f.getAbsolutePath();
-  print( "User selected "+fp+"\n");
-  loaded = true;
-  gcode = (type_gcode) ? processGCODE(fp) : processJSON(fp);
-  if(gcode.size() > 0){
-    print( "DRAWING LOADED\n");
-    print( "GCODE LINES GENERATED: "+gcode.size()+"\n");
-    generatePreview(gcode);
-    if(VERBOSE) print("GCODE PREVIEW GENERATED");
-    saveStrings( "data/gcode.txt", gcode.array() );
+  MachineSession m = session;
+  if( m.loading ){
+    print("STILL LOADING\n");
+    return;
+  }
+  m.loading = true;
+  m.filesTotal = 0;
+  try{
+    if( loadFileJob( m, f, type_gcode ) ) fileLoaded( m );
+  } finally {
+    m.loading = false;
+  }
+}
+
+// PREVIEW AND SAVE A LOADED FILE
+void fileLoaded( MachineSession m ){
+  m.preview = generatePreview(m.model);
+  if( m.model.size() == 0 ) return; // read while drawing
+  if(VERBOSE) print("GCODE PREVIEW GENERATED");
+  saveStrings( "data/gcode.txt", m.model.toStrings() );
+}
+
+// LOAD JOB INTO SESSION
+// gcode: G-code files, else JSON drawings. Returns true if it produced
+// any lines, no preview (runs headless too).
+// The session keeps its old job, path and loaded flag until the new job
+// is complete, a failed load leaves it as it was.
+boolean loadFolderJob( MachineSession m, File f, boolean gcode ){
+  String dir = f.getAbsolutePath();
+  print("User selected " + dir + "\n");
+  String[] files = listFiles(dir);
+  if( files == null || !checkDir(files,((gcode)?"txt":"json"))){
+    print( ((files==null)?"ERROR--EMPTY OR INVALID DIRECTORY\n":"ERROR--NO JSON DRAWING FILES IN DIRECTORY\n"));
+    return false;
+  }
+  JobModel g = (gcode) ? processGCODEs( m, dir, files ) : processJSONs( m, dir, files );
+  if( g.size() == 0 ) return false;
+  print("DRAWINGS LOADED\n");
+  print("GCODE LINES GENERATED: " + g.size() + "\n");
+  print(g.measure().summary() + "\n");
+  m.model = g;
+  m.job = new EncodedJob(g, m.sources);
+  m.fp = dir;
+  m.loadedDir = true;
+  m.loadedGcode = gcode;
+  m.loaded = true;
+  return true;
+}
+
+boolean loadFileJob( MachineSession m, File f, boolean gcode ){
+  String path = f.getAbsolutePath();
+  print( "User selected "+path+"\n");
+  // Large G-code files stream from disk as the robot draws, no preview
+  if( gcode && fileCheck(f.getName(),"txt") && f.canRead() && f.length() > lazyLoad * 1048576L ){
+    m.model = new JobModel();
+    m.sources = new SourceMap();
+    m.job = new LazyJob( path );
+    m.fp = path;
+    m.loadedDir = false;
+    m.loadedGcode = true;
+    m.loaded = true;
+    print( "READING WHILE DRAWING: "+nf(f.length()/1048576.0,0,1)+" MB, NO PREVIEW\n");
+    return true;
   }
-  line = 0;
+  JobModel g = (gcode) ? processGCODE(m, path) : processJSON(m, path);
+  if( g.size() == 0 ) return false;
+  print( "DRAWING LOADED\n");
+  print( "GCODE LINES GENERATED: "+g.size()+"\n");
+  print( g.measure().summary()+"\n");
+  m.model = g;
+  m.job = new EncodedJob(m.model, m.sources);
+  m.fp = path;
+  m.loadedDir = false;
+  m.loadedGcode = gcode;
+  m.loaded = true;
+  return true;
 }
 
 // LIST FILES IN DIRECTORY
@@ -654,65 +634,19 @@ Boolean checkDir( String[] files, String ext ){
 }
 
 // PROCESS FILES
-StringList processJSONs( String[] f ){
-  StringList g = new StringList(); //clear gcode buffer
-  PVector p;
-
-  g.append( gSpray(false) );
-  g.append( home() );
-
-  for( int i = 0; i < f.length; i++){
-    if( !fileCheck(f[i],"json") ) continue;
-
-    JSONArray coords = loadJSONArray( fp + "\\" + f[i] );
-
-    p = extractPos( coords.getFloat(0), -coords.getFloat(1) );
-    g.append( gSpray(false) );
-    g.append( gLine( p.x, p.y, false ) );
-    g.append( gDwell(0.5) );
-    g.append( gSpray(true) );
-
-    for( int k = 2; k < coords.size(); k+=2 ){
-      p = extractPos( coords.getFloat(k),-coords.getFloat(k+1) );
-      g.append( gLine(p.x, p.y, true) );
-    }
-    g.append( gSpray(false) );
-  }
-  g.append( gSpray(false) );
-  g.append( home() );
-
+// One task per drawing on the folder pool, joined in file name order
+JobModel processJSONs( MachineSession m, String dir, String[] f ){
+  JobModel g = ingestFolder( m, dir, f, "json" );
   print("GCODE LINES GENERATED: " + g.size() + "\n");
   return g;
 }
 
-StringList processGCODEs( String[] f ){
-  String[] load;
-  StringList g = new StringList();
-
-  g.append( gSpray(false) );
-  g.append( home() );
-
-  for(int i = 0; i < f.length; i++){
-    if( !fileCheck(f[i],"txt") ) continue;
-    load = loadStrings(fp+"\\"+f[i]);
-
-    for(int k = 0; k < load.length; k++){
-      //ignore home commands at beginning & end of file
-      if( k <= 3 && load[k].contains("G0X0Y0")) continue;
-      if( load[k].length() < 1 ) continue;
-      if( k >= load.length-3 && load[k].contains("G0X0Y0")) continue;
-      g.append(load[k]);
-    }
-    g.append(gSpray(false));
-  }
-  g.append( gSpray(false));
-  g.append( home() );
-
-  return g;
+JobModel processGCODEs( MachineSession m, String dir, String[] f ){
+  return ingestFolder( m, dir, f, "txt" );
 }
 
-StringList processJSON( String f ){
-  StringList g = new StringList();
+JobModel processJSON( MachineSession m, String f ){
+  JobModel g = new JobModel();
   if( !fileCheck(f,"json") ){
     print("ERROR - NOT A JSON FILE\n");
     return g;
@@ -720,40 +654,49 @@ StringList processJSON( String f ){
 
   PVector p;
   JSONArray coords = loadJSONArray( f );
+  m.sources = new SourceMap();
+  int src = m.sources.addFile( new File(f).getName() );
   p = extractPos(coords.getFloat(0), -coords.getFloat(1));
-  g.append( gSpray(false) );
-  g.append( home() );
+  g.add( gSpray(false) );
+  g.add( home() );
 
-  g.append( gLine( p.x, p.y, false ) );
-  g.append( gDwell(0.5) );
-  g.append( gSpray(true) );
+  g.add( gLine( p.x, p.y, false ) );
+  g.add( gDwell(0.5) );
+  g.add( gSpray(true) );
 
   for( int i = 2; i < coords.size(); i+=2 ){
     p = extractPos( coords.getFloat(i),-coords.getFloat(i+1) );
-    g.append( gLine(p.x, p.y, true) );
+    m.sources.set( g.add( gLine(p.x, p.y, true) ), src, 0 );
   }
 
-  g.append( gSpray(false) );
-  g.append( home() );
+  g.add( gSpray(false) );
+  g.add( home() );
 
   return g;
 }
 
-StringList processGCODE( String f ){
-  StringList g = new StringList();
+// LOAD GCODE FILE
+// Memory-mapped, lines go into the job model without a String each
+JobModel processGCODE( MachineSession m, String f ){
+  JobModel g = new JobModel();
   if( !fileCheck(f,"txt") ){
     print("ERROR - NOT A GCODE FILE\n");
     return g;
   }
-  String[] load = loadStrings(f);
-  g.append( gSpray(false) );
-  g.append( home() );
-
-  for (int i = 0; i < load.length; i++){
-    g.append( load[i] );
+  MappedGcode load = new MappedGcode();
+  if( !load.open(f) ) return g;
+  GcodeLine ln = new GcodeLine();
+  m.sources = new SourceMap();
+  int src = m.sources.addFile( new File(f).getName() );
+  g = new JobModel( load.size() + 4 );
+  g.add( gSpray(false) );
+  g.add( home() );
+
+  for (int i = 0; i < load.size(); i++){
+    m.sources.set( g.add( load.line(i, ln) ), src, i+1 );
   }
-  g.append( gSpray(false) );
-  g.append( home() );
+  g.add( gSpray(false) );
+  g.add( home() );
   return g;
 }
 
@@ -874,41 +817,117 @@ void renderNozzle(){
   translate(origin.x-scaleWidth*0.5,origin.y+scaleHeight*0.5);
 
   // Nozzle Icon
-  stroke( (spraying)?red:blue );
+  stroke( (session.spraying)?red:blue );
   fill(white,50);
   strokeWeight(3);
-  ellipse(posx*scalar,-(posy*scalar),10,10);
+  ellipse(session.posx*scalar,-(session.posy*scalar),10,10);
   noFill();
   strokeWeight(0.5);
-  ellipse(posx*scalar, -(posy*scalar),20,20);
+  ellipse(session.posx*scalar, -(session.posy*scalar),20,20);
 
   // Nozzle Position Text
-  String pos = "( "+nf(posx,0,2)+", "+nf(posy,0,2)+" )";
+  String pos = "( "+nf(session.posx,0,2)+", "+nf(session.posy,0,2)+" )";
   rectMode(CENTER);
   noStroke();
   fill(255,100);
-  rect(posx*scalar,-posy*scalar+20, textWidth(pos)+10,20,10);
+  rect(session.posx*scalar,-session.posy*scalar+20, textWidth(pos)+10,20,10);
   rectMode(CORNER);
 
   //fill( (spraying) ? red : blue );
   fill(black);
   textFont(font14,14);
   textAlign(CENTER);
-  text(pos,(posx*scalar),-(posy*scalar) + 24.0);
+  text(pos,(session.posx*scalar),-(session.posy*scalar) + 24.0);
 
   popMatrix();
 
 }
 
+// TILE LAYOUT
+// Square cells filling the preview area, enough columns for every session
+int tileColumns(){
+  return ceil( sqrt( sessions.size() ) );
+}
+
+float tileSize(){
+  int cols = tileColumns();
+  int rows = ceil( sessions.size() / (float) cols );
+  return min( 680.0 / cols, 610.0 / rows );
+}
+
+// RENDER ALL SESSIONS AS TILES
+// Preview, nozzle and state of every robot, the active one outlined in blue
+void renderTiles(){
+  int cols = tileColumns();
+  float cell = tileSize();
+  float side = cell - 20;
+  float s = side / (canvas_width*scalar);
+
+  noStroke();
+  fill(black);
+  rect(600, 40, 700, 620);
+
+  for( int i = 0; i < sessions.size(); i++ ){
+    MachineSession m = sessions.get(i);
+    float x = 610 + (i % cols) * cell + 10;
+    float y = 45 + (i / cols) * cell + 10;
+
+    // Canvas
+    stroke( (m == session) ? blue : charcoal );
+    strokeWeight(3);
+    fill(grey);
+    rect(x, y, side, side);
+
+    // Preview & nozzle
+    pushMatrix();
+    translate(x, y+side);
+    scale(s);
+    if( m.preview != null ){
+      m.preview.enableStyle();
+      shape(m.preview, 0, 0);
+    }
+    stroke( (m.spraying) ? red : blue );
+    strokeWeight(3/s);
+    noFill();
+    ellipse(m.posx*scalar, -(m.posy*scalar), 12/s, 12/s);
+    popMatrix();
+
+    // Label
+    m.engine.snapshot( m.progress );
+    noStroke();
+    fill(black, 150);
+    rect(x, y, side, 20);
+    fill( (m.connected) ? green : red );
+    textFont(font12,12);
+    textAlign(LEFT);
+    text(m.name.toUpperCase() + "  " + m.progress.machine.describe(), x+5, y+14);
+    textAlign(RIGHT);
+    fill(white);
+    text(m.progress.completed + " / " + m.progress.total, x+side-5, y+14);
+  }
+}
+
+// SELECT TILE UNDER MOUSE
+void mousePressed(){
+  if( !tiled ) return;
+  float cell = tileSize();
+  if( mouseX < 610 || mouseY < 45 ) return;
+  int col = int( (mouseX - 610) / cell );
+  int row = int( (mouseY - 45) / cell );
+  if( col >= tileColumns() ) return;
+  selectSession( row * tileColumns() + col );
+}
+
 // DISPLAY STATS
 void displayStats(){
   // TX Command
-  if(sent != null){
+  session.engine.snapshot( session.progress );
+  if(session.progress.sent != null){
     noStroke();
     fill(green);
     textAlign(LEFT);
     textFont(font24, 24);
-    text("TX: "+sent, 15, 560);
+    text("TX: "+session.progress.sent, 15, 560);
   }
   // RX Command
   if(val != null){
@@ -924,31 +943,67 @@ void displayStats(){
   fill(white);
   textAlign(LEFT);
   textFont(font18,18);
-  text("LINES SENT: "+issued+" / "+gcode.size(), 15, 620);
-  text("COMPLETED: "+completed+" / "+gcode.size(), 15, 640);
+  text("LINES SENT: "+session.progress.issued+" / "+session.progress.total, 15, 620);
+  text("COMPLETED: "+session.progress.completed+" / "+session.progress.total+" ("+nf(100*session.progress.fraction,0,1)+"%)", 15, 640);
+  textFont(font12,12);
+  text("STATUS RTT: "+nf(session.progress.reportRtt,0,1)+" ms / EVERY "+session.progress.reportInterval+" ms", 300, 620);
+  text("ACK: "+nf(session.progress.ackMean,0,1)+" ms AVG / "+nf(session.progress.ackP95,0,1)+" ms P95 / "+nf(session.progress.ackMax,0,1)+" ms MAX", 300, 594);
+  text("REALTIME: "+nf(session.progress.realtimeMean,0,2)+" ms AVG / "+nf(session.progress.realtimeMax,0,2)+" ms MAX", 300, 607);
+  if(session.progress.executing >= 0) text("EXECUTING: LINE "+(session.progress.executing+1)+" ("+session.job.where(session.progress.executing)+")", 300, 633);
+  if(session.progress.errors > 0){
+    fill(red);
+    text("ERRORS: "+session.progress.errors+" / LAST: "+session.progress.lastError, 300, 646);
+  }
+  displayPlanner(15, 650, 440, 50);
 
   // Serial Status
   String serial_status;
   textFont(font18,18);
-  fill( ((connected) ? green : red) );
-  serial_status = (connected) ? "CONNECTED ON " + portname : "NOT CONNECTED";
+  fill( ((session.connected) ? green : red) );
+  serial_status = (session.connected) ? "CONNECTED ON " + session.portname : "NOT CONNECTED";
   text(serial_status, 15, 740);
+  textFont(font12,12);
+  fill(white);
+  text(notice, 15, 716);
 
   // Machine status
   textFont(font18,18);
-  fill( (status.contains("Idle")) ? white : (status.contains("Run")) ? green : red );
+  int state = session.progress.machine.state;
+  fill( (state == STATE_IDLE || state == STATE_UNKNOWN) ? white : (state == STATE_RUN) ? green : red );
   textAlign(CENTER);
-  text(status, origin.x, origin.y+375);
+  text(session.progress.machine.describe(), origin.x, origin.y+375);
+
+  // Overrides
+  textFont(font12,12);
+  textAlign(LEFT);
+  fill(white);
+  text("FEED", 615, 679);
+  text("RAPID", 915, 679);
+  GrblStatus m = session.progress.machine;
+  fill( (m.ovFeed != 100 || m.ovRapid != 100 || m.ovSpindle != 100) ? green : white );
+  text("OV  F:"+m.ovFeed+"%  R:"+m.ovRapid+"%  S:"+m.ovSpindle+"%", 1115, 679);
+
+  // Sessions
+  textFont(font14,14);
+  textAlign(LEFT);
+  fill(white);
+  text("BOT "+(sessions.indexOf(session)+1)+" OF "+sessions.size()+": "+session.name.toUpperCase()+((session.portname != null) ? " ON "+session.portname : ""), 870, 28);
 
   // File Selection
-  if(fp.length()>0){
-    String[] path = fp.split("\\\\");
+  if(session.fp.length()>0){
+    String[] path = session.fp.split("\\\\");
     int depth = path.length;
     textFont(font18,18);
     fill( white );
     textAlign(LEFT);
     text(join(subset(path,depth-2),"/"),210,415);
   }
+  if(session.loading && session.filesTotal > 0){
+    textFont(font12,12);
+    fill( white );
+    textAlign(LEFT);
+    text("LOADING: "+session.filesLoaded.get()+" / "+session.filesTotal+" FILES",210,435);
+  }
 }
 
 // SET UP UX CONTROLS
@@ -1346,6 +1401,144 @@ void setupControls() {
   .setText( "SPEED (mm/min)" )
   ;
 
+  // Feed Override Buttons
+  cP5.addBang("feed-10")
+  .setPosition(655,662)
+  .setSize(45,25)
+  .setTriggerEvent(Bang.RELEASE)
+  .setColorForeground(charcoal)
+  //caption settings
+  .getCaptionLabel()
+  .align(ControlP5.CENTER, ControlP5.CENTER)
+  .setColor(white)
+  .setFont(font12)
+  .setText("-10%")
+  ;
+  cP5.addBang("feed-1")
+  .setPosition(705,662)
+  .setSize(45,25)
+  .setTriggerEvent(Bang.RELEASE)
+  .setColorForeground(charcoal)
+  //caption settings
+  .getCaptionLabel()
+  .align(ControlP5.CENTER, ControlP5.CENTER)
+  .setColor(white)
+  .setFont(font12)
+  .setText("-1%")
+  ;
+  cP5.addBang("feed100")
+  .setPosition(755,662)
+  .setSize(45,25)
+  .setTriggerEvent(Bang.RELEASE)
+  .setColorForeground(charcoal)
+  //caption settings
+  .getCaptionLabel()
+  .align(ControlP5.CENTER, ControlP5.CENTER)
+  .setColor(white)
+  .setFont(font12)
+  .setText("100%")
+  ;
+  cP5.addBang("feed+1")
+  .setPosition(805,662)
+  .setSize(45,25)
+  .setTriggerEvent(Bang.RELEASE)
+  .setColorForeground(charcoal)
+  //caption settings
+  .getCaptionLabel()
+  .align(ControlP5.CENTER, ControlP5.CENTER)
+  .setColor(white)
+  .setFont(font12)
+  .setText("+1%")
+  ;
+  cP5.addBang("feed+10")
+  .setPosition(855,662)
+  .setSize(45,25)
+  .setTriggerEvent(Bang.RELEASE)
+  .setColorForeground(charcoal)
+  //caption settings
+  .getCaptionLabel()
+  .align(ControlP5.CENTER, ControlP5.CENTER)
+  .setColor(white)
+  .setFont(font12)
+  .setText("+10%")
+  ;
+
+  // Rapid Override Buttons
+  cP5.addBang("rapid25")
+  .setPosition(960,662)
+  .setSize(45,25)
+  .setTriggerEvent(Bang.RELEASE)
+  .setColorForeground(charcoal)
+  //caption settings
+  .getCaptionLabel()
+  .align(ControlP5.CENTER, ControlP5.CENTER)
+  .setColor(white)
+  .setFont(font12)
+  .setText("25%")
+  ;
+  cP5.addBang("rapid50")
+  .setPosition(1010,662)
+  .setSize(45,25)
+  .setTriggerEvent(Bang.RELEASE)
+  .setColorForeground(charcoal)
+  //caption settings
+  .getCaptionLabel()
+  .align(ControlP5.CENTER, ControlP5.CENTER)
+  .setColor(white)
+  .setFont(font12)
+  .setText("50%")
+  ;
+  cP5.addBang("rapid100")
+  .setPosition(1060,662)
+  .setSize(45,25)
+  .setTriggerEvent(Bang.RELEASE)
+  .setColorForeground(charcoal)
+  //caption settings
+  .getCaptionLabel()
+  .align(ControlP5.CENTER, ControlP5.CENTER)
+  .setColor(white)
+  .setFont(font12)
+  .setText("100%")
+  ;
+
+  // Robot Sessions
+  cP5.addBang("nextBot")
+  .setPosition(610,10)
+  .setSize(80,25)
+  .setTriggerEvent(Bang.RELEASE)
+  .setColorForeground(charcoal)
+  //caption settings
+  .getCaptionLabel()
+  .align(ControlP5.CENTER, ControlP5.CENTER)
+  .setColor(white)
+  .setFont(font12)
+  .setText("NEXT BOT")
+  ;
+  cP5.addBang("addBot")
+  .setPosition(695,10)
+  .setSize(80,25)
+  .setTriggerEvent(Bang.RELEASE)
+  .setColorForeground(charcoal)
+  //caption settings
+  .getCaptionLabel()
+  .align(ControlP5.CENTER, ControlP5.CENTER)
+  .setColor(white)
+  .setFont(font12)
+  .setText("ADD BOT")
+  ;
+  cP5.addBang("tile")
+  .setPosition(780,10)
+  .setSize(80,25)
+  .setTriggerEvent(Bang.RELEASE)
+  .setColorForeground(charcoal)
+  //caption settings
+  .getCaptionLabel()
+  .align(ControlP5.CENTER, ControlP5.CENTER)
+  .setColor(white)
+  .setFont(font12)
+  .setText("TILE")
+  ;
+
   // Manual Command Entry
   cP5.addTextfield("cmdEntry")
   .setPosition( 15, 460 )
@@ -1369,114 +1562,145 @@ void controlEvent( ControlEvent theEvent ) {
     String eventName = theEvent.getName();
     switch( eventName ) {
       case "connect":
-        if(connected){
-          port.stop();
-          portname = null;
-        }
+        if(session.connected) closeSerial();
         selectSerial();
         break;
       case "park":
-        if(!streaming) send( park() );
+        if(!session.streaming) send( park() );
         break;
       case "y+100":
-        if(!streaming) send( jog( 0, 100 ) );
+        if(!session.streaming) send( jog( 0, 100 ) );
         break;
       case "y+10":
-        if(!streaming) send( jog( 0, 10 ) );
+        if(!session.streaming) send( jog( 0, 10 ) );
         break;
       case "y+1":
-        if(!streaming) send( jog(0, 1) );
+        if(!session.streaming) send( jog(0, 1) );
         break;
       case "y-1":
-        if(!streaming) send( jog(0,-1) );
+        if(!session.streaming) send( jog(0,-1) );
         break;
       case "y-10":
-        if(!streaming) send( jog(0, -10) );
+        if(!session.streaming) send( jog(0, -10) );
         break;
       case "y-100":
-        if(!streaming) send( jog(0, -100) );
+        if(!session.streaming) send( jog(0, -100) );
         break;
       case "x+100":
-        if(!streaming) send( jog(100, 0) );
+        if(!session.streaming) send( jog(100, 0) );
         break;
       case "x+10":
-        if(!streaming) send( jog(10, 0) );
+        if(!session.streaming) send( jog(10, 0) );
         break;
       case "x+1":
-        if(!streaming) send( jog(1, 0) );
+        if(!session.streaming) send( jog(1, 0) );
         break;
       case "x-1":
-        if(!streaming) send( jog(-1, 0) );
+        if(!session.streaming) send( jog(-1, 0) );
         break;
       case "x-10":
-        if(!streaming) send( jog(-10, 0) );
+        if(!session.streaming) send( jog(-10, 0) );
         break;
       case "x-100":
-        if(!streaming) send( jog(-100, 0) );
+        if(!session.streaming) send( jog(-100, 0) );
         break;
       case "home":
-        if(!streaming) send( home() );
+        if(!session.streaming) send( home() );
         break;
       case "sprayOff":
-        if(!streaming) send( gSpray(false) );
+        if(!session.streaming) send( gSpray(false) );
         break;
       case "sprayOn":
-        if(!streaming) send( gSpray(true) );
+        if(!session.streaming) send( gSpray(true) );
         break;
       case "origin":
-        if(!streaming) send( origin() );
+        if(!session.streaming) send( origin() );
         break;
       case "width":
       case "height":
       case "margin":
-        if(!streaming) updateDim();
+        if(!session.streaming) updateDim();
         break;
       case "speed":
-        if(!streaming) updateSpeed();
+        if(!session.streaming) updateSpeed();
         break;
       case "cmdEntry":
-        if(!streaming) send( manualEntry() );
+        if(!session.streaming) send( manualEntry() );
         break;
       case "load":
+        if( session.loading ) break;
         if( load_dir ) loadFolder();
         else loadSingle();
         break;
       case "load-mode":
-        if(!streaming) {
+        if(!session.streaming) {
           load_dir = !load_dir;
           print("LOADING MODE: "+ ((load_dir)?"DIRECTORY":"SINGLE FILE") + "\n");
         }
         break;
       case "file-type":
-        if(!streaming){
+        if(!session.streaming){
           type_gcode = !type_gcode;
           print("INPUT FILETYPE: "+ ((type_gcode)?"GCODE":"JSON") + "\n");
         }
         break;
       case "start":
-        if(paused){
-          streaming = false;
-          resetStatus();
+        if(session.paused){
+          session.engine.cancel();
           sendByte( gReset() );
           delay(100);
           send( home() );
-          paused = false;
+          session.paused = false;
           break;
         }
-        if(!streaming){
+        if(!session.streaming && !session.loading){
+          // Feed rate goes out after begin(), ahead of the first job line
+          session.engine.begin( session.job );
           updateSpeed();
-          streaming = true;
-          stream();
+          session.streaming = true;
         }
         break;
+      case "feed-10":
+        overrideFeed(-10);
+        break;
+      case "feed-1":
+        overrideFeed(-1);
+        break;
+      case "feed100":
+        overrideFeed(0);
+        break;
+      case "feed+1":
+        overrideFeed(1);
+        break;
+      case "feed+10":
+        overrideFeed(10);
+        break;
+      case "rapid25":
+        overrideRapid(25);
+        break;
+      case "rapid50":
+        overrideRapid(50);
+        break;
+      case "rapid100":
+        overrideRapid(100);
+        break;
+      case "nextBot":
+        selectSession( (sessions.indexOf(session) + 1) % sessions.size() );
+        break;
+      case "addBot":
+        addSession();
+        selectSerial();
+        break;
+      case "tile":
+        tiled = !tiled;
+        break;
       case "pause":
-        paused = !paused;
-        if(paused){
+        session.paused = !session.paused;
+        if(session.paused){
           sendByte( gDoor() );
         } else {
           sendByte( gResume() );
-          streaming = true;
-          stream();
+          session.streaming = true;
         }
         break;
       default:
@@ -1497,21 +1721,20 @@ void checkStatus(){
 
   relabelToggle( f_type, ((type_gcode)?"GCODE":"JSON"));
   relabelToggle( l_type, ((load_dir)?"DIR":"FILE"));
+  relabelButton( cP5.get(Bang.class, "tile"), ((tiled)?"SINGLE":"TILE"));
+  relabelButton( load, (session.loading) ? "LOADING" : ((session.loaded)?"RELOAD":"LOAD") );
 
-  if( !connected ){
+  if( !session.connected ){
     lockButton( start, true, charcoal, grey );
     relabelButton( start, "START" );
+    lockButton( load, session.loading, (session.loading) ? charcoal : blue, (session.loading) ? grey : black );
     lockButton( pause, true, charcoal, grey );
     relabelButton( pause, "PAUSE" );
     relabelButton( connect, "CONNECT" );
     return;
   }
 
-  if( loaded ){
-    relabelButton( load, "RELOAD" );
-  }
-
-  if( (streaming && !paused) ){
+  if( (session.streaming && !session.paused) ){
     lockButton( start, false, blue, white );
     relabelButton( start, "RUNNING" );
     lockButton( pause, false, red, white );
@@ -1522,7 +1745,7 @@ void checkStatus(){
     return;
   }
 
-  if( paused ){
+  if( session.paused ){
     lockButton( start, false, red, white );
     relabelButton( start, "RESET" );
     lockButton( pause, false, green, white );
@@ -1533,6 +1756,18 @@ void checkStatus(){
     return;
   }
 
+  // A background load owns the session until its job is swapped in
+  if( session.loading ){
+    lockButton( start, true, charcoal, grey );
+    relabelButton( start, "START" );
+    lockButton( pause, false, red, white );
+    relabelButton( pause, "PAUSE" );
+    lockButton( load, true, charcoal, grey );
+    lockButton( origin, false, black, white );
+    lockButton( connect, false, white, black );
+    return;
+  }
+
   lockButton( start, false, green, white );
   relabelButton( start, "START" );
   lockButton( pause, false, red, white );
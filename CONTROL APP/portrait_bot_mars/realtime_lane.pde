@@ -0,0 +1,70 @@
+////////////////////////////////////////////////////////////////////////////////
+// REALTIME LANE
+////////////////////////////////////////////////////////////////////////////////
+// Priority queue for GRBL realtime bytes (?, !, ~, reset, door, overrides).
+// GRBL picks these out of the serial stream as they arrive, even in the
+// middle of a line, so they never have to wait for the stream. UI callbacks
+// offer bytes here and the port writer sends them before any bulk data.
+
+// BULK WRITE SLICE
+// Stream batches are written in slices of this many bytes, with pending
+// realtime bytes sent between slices (16 bytes is ~1.4 ms at 115200 baud)
+int REALTIME_SLICE = 16;
+
+class RealtimeLane {
+  byte[] bytes;
+  long[] issued;
+  int head, count;
+  int dropped;
+  LatencyStats latency;
+
+  RealtimeLane( int capacity ){
+    bytes = new byte[capacity];
+    issued = new long[capacity];
+    latency = new LatencyStats( 100 );
+  }
+
+  // QUEUE BYTE, returns false if the lane is full
+  synchronized boolean offer( byte b, long now ){
+    if( count == bytes.length ){
+      dropped++;
+      return false;
+    }
+    int k = (head + count) % bytes.length;
+    bytes[k] = b;
+    issued[k] = now;
+    count++;
+    return true;
+  }
+
+  // MOVE PENDING BYTES INTO out
+  // Records issue-to-write latency, returns the number of bytes taken
+  synchronized int drain( byte[] out, long now ){
+    int n = Math.min( count, out.length );
+    for( int i = 0; i < n; i++ ){
+      out[i] = bytes[head];
+      latency.add( now - issued[head] );
+      head = (head + 1) % bytes.length;
+    }
+    count -= n;
+    return n;
+  }
+
+  // LATENCY FOR UI (ms)
+  synchronized float meanLatency(){
+    return latency.mean();
+  }
+
+  synchronized float maxLatency(){
+    return latency.max();
+  }
+
+  synchronized boolean isEmpty(){
+    return count == 0;
+  }
+
+  synchronized void clear(){
+    head = 0;
+    count = 0;
+  }
+}
@@ -0,0 +1,107 @@
+////////////////////////////////////////////////////////////////////////////////
+// RX BUFFER ACCOUNTING
+////////////////////////////////////////////////////////////////////////////////
+// Fixed-capacity ring of in-flight line lengths with a running byte total.
+// Used for GRBL character-counting flow control: every line sent is pushed,
+// every ok pops the oldest one. Push and pop are O(1) and never allocate.
+// Each entry also carries a tag (the job line index) and the time it was
+// sent, so a response can be matched to the line it acknowledges.
+
+class RxBuffer {
+  int[] lengths;
+  int[] tags;
+  long[] times;
+  int head, count;
+  int bytes;
+  int window;
+
+  // window: size of the GRBL serial RX buffer in bytes
+  // slots: max number of lines that can be in flight at once
+  RxBuffer( int window, int slots ){
+    this.window = window;
+    lengths = new int[slots];
+    tags = new int[slots];
+    times = new long[slots];
+    clear();
+  }
+
+  // CHECK IF A LINE OF n BYTES FITS IN THE FREE WINDOW
+  boolean fits( int n ){
+    return count < lengths.length && bytes + n <= window;
+  }
+
+  // ENQUEUE A SENT LINE
+  void push( int n ){
+    push( n, -1 );
+  }
+
+  void push( int n, int tag ){
+    push( n, tag, 0 );
+  }
+
+  void push( int n, int tag, long time ){
+    int k = (head + count) % lengths.length;
+    lengths[k] = n;
+    tags[k] = tag;
+    times[k] = time;
+    count++;
+    bytes += n;
+  }
+
+  // ACKNOWLEDGE OLDEST LINE
+  // Returns its length, or -1 if nothing is in flight
+  int pop(){
+    if( count == 0 ) return -1;
+    int n = lengths[head];
+    head = (head + 1) % lengths.length;
+    count--;
+    bytes -= n;
+    return n;
+  }
+
+  // TAG OF OLDEST LINE
+  // The line the next ok or error belongs to, -1 if nothing is in flight
+  int peek(){
+    return (count == 0) ? -1 : tags[head];
+  }
+
+  // SEND TIME OF OLDEST LINE
+  long peekTime(){
+    return (count == 0) ? 0 : times[head];
+  }
+
+  // SEND TIME OF NEWEST LINE
+  long newestTime(){
+    return (count == 0) ? 0 : times[(head + count - 1) % times.length];
+  }
+
+  // OCCUPANCY
+  int size(){
+    return count;
+  }
+
+  int used(){
+    return bytes;
+  }
+
+  int free(){
+    return window - bytes;
+  }
+
+  boolean isEmpty(){
+    return count == 0;
+  }
+
+  // FORGET WHICH LINES ARE IN FLIGHT
+  // Their bytes stay counted until GRBL acks them, the acks belong to no
+  // job line any more
+  void untag(){
+    for( int i = 0; i < count; i++ ) tags[(head + i) % tags.length] = -1;
+  }
+
+  void clear(){
+    head = 0;
+    count = 0;
+    bytes = 0;
+  }
+}
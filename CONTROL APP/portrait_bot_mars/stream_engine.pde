@@ -0,0 +1,679 @@
+////////////////////////////////////////////////////////////////////////////////
+// STREAM ENGINE
+////////////////////////////////////////////////////////////////////////////////
+// Owns the transport to GRBL and runs the GCODE stream on its own thread, so the
+// number of lines per second is no longer tied to the draw() frame rate.
+// The UI only talks to the engine through its synchronized methods and reads
+// progress through snapshot().
+// Realtime bytes bypass the engine lock: they go through the realtime lane
+// and are written ahead of, or between slices of, any bulk data.
+//
+// Two flow control modes share the same in-flight queue:
+// - character counting (PIPELINE_DEPTH 0): lines are sent while their bytes
+//   fit in GRBL's serial RX buffer
+// - send-response (PIPELINE_DEPTH N): up to N lines are outstanding, and
+//   only while their bytes also fit in the RX buffer. Depth 1 waits for
+//   every ok.
+
+// ERROR POLICIES (what to do when GRBL rejects a job line)
+static final int ERROR_PAUSE = 0; // hold the machine and wait for the operator
+static final int ERROR_SKIP = 1; // report the line and keep streaming
+static final int ERROR_RETRY = 2; // resend the line, then pause if it keeps failing or lines after it were already sent
+
+// PROGRESS SNAPSHOT
+// Copy of the stream counters, filled by the engine for the UI
+class StreamProgress {
+  int line, issued, completed, total; // total: lines read so far
+  float fraction; // of the job acknowledged, by byte offset for lazy jobs
+  String sent;
+  GrblStatus machine = new GrblStatus();
+  // PLANNER
+  int[] planner = new int[300];
+  int plannerSamples;
+  int starvations, lostAcks;
+  long starvedMillis;
+  // STATUS POLLING
+  float reportRtt;
+  int reportInterval;
+  // ERRORS & LINE READBACK
+  int errors;
+  String lastError;
+  int executing; // job line from Ln:, -1 if not reported
+  // ACK LATENCY (send to ok/error, ms)
+  float ackMean, ackP95, ackMax;
+  // REALTIME LANE (issue to write, ms)
+  float realtimeMean, realtimeMax;
+}
+
+class StreamEngine implements Runnable {
+  MachineSession session;
+  volatile Transport port;
+  Thread thread;
+  volatile boolean running;
+  // GCODE
+  JobSource job;
+  int line;
+  int issued, completed;
+  int acks;
+  int lastLine;
+  int lastAcked;
+  volatile int finished; // jobs streamed to the end
+  // CHECKPOINTS
+  JobJournal journal;
+  // ERRORS
+  int errors;
+  String lastError;
+  IntList retries;
+  int retryOf, retryCount;
+  // ACK LATENCY
+  LatencyStats ackLatency;
+  long startedAt;
+  int startedLine;
+  // THROUGHPUT
+  long bytesSent; // line bytes written since the job started
+  long streamNanos; // start to last ack of the last finished job
+  // STREAM MODE
+  RxBuffer rx;
+  StringList manual; // commands waiting for room in the RX window
+  int shownFree; // RX window bytes free when last printed (VERBOSE)
+  byte[] batch;
+  byte[] numbered; // line with its own N word, see numberWord()
+  RealtimeLane lane;
+  byte[] realtime;
+  java.util.concurrent.locks.ReentrantLock writer;
+  // RESPONSES
+  byte[] chunk;
+  byte[] rxLine;
+  int rxLen;
+  GrblResponse resp;
+  GrblStatus machine;
+  volatile String banner; // Grbl version line since the port was attached
+  PlannerMonitor planner;
+  Watchdog watchdog;
+
+  StreamEngine( MachineSession s ){
+    session = s;
+    job = new EncodedJob();
+    rx = new RxBuffer( RX_BUFFER_SIZE-1, RX_BUFFER_SIZE );
+    manual = new StringList();
+    shownFree = -1;
+    batch = new byte[128];
+    numbered = new byte[128];
+    lane = new RealtimeLane( 64 );
+    realtime = new byte[64];
+    writer = new java.util.concurrent.locks.ReentrantLock();
+    lastLine = -1;
+    retries = new IntList();
+    retryOf = -1;
+    ackLatency = new LatencyStats( 1000 );
+    journal = new JobJournal( sketchPath("data/journal-" + s.name + ".txt") );
+    chunk = new byte[256];
+    rxLine = new byte[256];
+    resp = new GrblResponse();
+    machine = new GrblStatus();
+    planner = new PlannerMonitor( 300 );
+    watchdog = new Watchdog( this );
+  }
+
+  // START ENGINE THREAD
+  void start(){
+    if( thread != null ) return;
+    running = true;
+    thread = new Thread( this, "stream-engine-" + session.name );
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  // STOP ENGINE THREAD
+  void halt(){
+    running = false;
+    if( thread == null ) return;
+    thread.interrupt();
+    try{
+      thread.join(500);
+    } catch( InterruptedException e ){
+      Thread.currentThread().interrupt();
+    }
+    thread = null;
+  }
+
+  // ENGINE LOOP
+  // Drains every pending response, refills the buffer, and only parks
+  // when there was nothing to do
+  public void run(){
+    while( running ){
+      watchdog.tick( System.nanoTime() );
+      journal.tick( System.nanoTime() );
+      flushRealtime();
+      if( !serialRun() ){
+        java.util.concurrent.locks.LockSupport.parkNanos( 1000000 );
+      }
+    }
+  }
+
+  // ATTACH / DETACH SERIAL PORT
+  // A job still streaming was cut off: GRBL lost whatever was queued, so
+  // the stream stops here and can be resumed from the journal
+  synchronized void attach( Transport p ){
+    if( port != null && port != p ) port.close();
+    interrupt();
+    journal.flush();
+    port = p;
+    rx.clear();
+    manual.clear();
+    lane.clear();
+    rxLen = 0;
+    banner = null;
+    machine.reset();
+  }
+
+  // STOP A STREAM GRBL CAN NO LONGER FINISH
+  void interrupt(){
+    if( !session.streaming ) return;
+    print("STREAM INTERRUPTED AT LINE " + (lastAcked+1) + "\n");
+    session.streaming = false;
+    session.paused = false;
+    resetStatus();
+  }
+
+  // WAIT UP TO ms FOR THE GRBL BANNER, returns it or null
+  String awaitBanner( int ms ){
+    long end = System.nanoTime() + ms * 1000000L;
+    while( banner == null && port != null && System.nanoTime() - end < 0 ){
+      java.util.concurrent.locks.LockSupport.parkNanos( 10000000 );
+    }
+    return banner;
+  }
+
+  synchronized boolean isAttached(){
+    return port != null;
+  }
+
+  synchronized void detach(){
+    writer.lock();
+    try{
+      if( port != null ) port.close();
+      port = null;
+    } finally {
+      writer.unlock();
+    }
+  }
+
+  // PORT UNPLUGGED
+  // The port name is kept so the port watcher can reopen it
+  synchronized void lost(){
+    journal.flush();
+    detach();
+    session.connected = false;
+  }
+
+  // LOAD JOB AND RESET COUNTERS
+  synchronized void begin( JobSource g ){
+    restart( g );
+    journal.start( g, session.fp, session.loadedDir, session.loadedGcode );
+  }
+
+  // RESUME JOB AT LINE from
+  // The prelude lines restore position and modal state first, they go out
+  // as manual commands ahead of the job
+  synchronized void resume( JobSource g, int from, ModalState m ){
+    restart( g );
+    job.release( from );
+    line = from;
+    issued = from;
+    completed = from;
+    lastAcked = from-1;
+    startedLine = from;
+    journal.resume( from, m );
+    StringList prelude = m.prelude();
+    for( int i = 0; i < prelude.size(); i++ ) manual.append( prelude.get(i) );
+    sendManual();
+    print("RESUMING AT LINE " + (from+1) + " (" + job.where(from) + ")\n");
+  }
+
+  void restart( JobSource g ){
+    job = g;
+    resetStatus();
+    planner.reset();
+    errors = 0;
+    lastError = null;
+    ackLatency.reset();
+    startedAt = System.nanoTime();
+    startedLine = 0;
+    bytesSent = 0;
+    streamNanos = 0;
+  }
+
+  // CANCEL JOB
+  synchronized void cancel(){
+    session.streaming = false;
+    resetStatus();
+  }
+
+  // COPY STREAM COUNTERS FOR UI
+  synchronized void snapshot( StreamProgress p ){
+    p.line = line;
+    p.issued = issued;
+    p.completed = completed;
+    p.total = job.size();
+    p.fraction = (lastAcked >= 0) ? job.fraction( lastAcked+1 ) : 0;
+    p.sent = (lastLine >= 0) ? job.text(lastLine) : session.sent;
+    machine.copyTo( p.machine );
+    p.plannerSamples = planner.copyHistory( p.planner );
+    p.starvations = planner.starvations;
+    p.starvedMillis = planner.starvedNanos / 1000000;
+    p.lostAcks = planner.lostAcks;
+    p.reportRtt = watchdog.rttAvg;
+    p.reportInterval = watchdog.interval;
+    p.errors = errors;
+    p.lastError = lastError;
+    p.executing = (machine.hasLine) ? machine.lineNumber - 1 : -1;
+    p.ackMean = ackLatency.mean();
+    p.ackP95 = ackLatency.percentile(95);
+    p.ackMax = ackLatency.max();
+    p.realtimeMean = lane.meanLatency();
+    p.realtimeMax = lane.maxLatency();
+  }
+
+  // UPDATE SERIAL CONNECTION & CHECK FOR DATA
+  // Single engine pass, returns true if any response was handled or any
+  // line was sent
+  synchronized boolean serialRun(){
+    if( port == null ) return false;
+    if( !port.isOpen() ){
+      journal.flush();
+      postEvent( session, "DISCONNECTED: " + port.name() );
+      port = null;
+      session.connected = false;
+      return false;
+    }
+    int handled = 0;
+    while( port.available() > 0 ){
+      int n = port.read( chunk, 0, chunk.length );
+      if( n <= 0 ) break;
+      for( int i = 0; i < n; i++ ){
+        byte c = chunk[i];
+        if( c == '\n' ){
+          classify( rxLine, 0, rxLen, resp );
+          handleResponse( resp );
+          rxLen = 0;
+          handled++;
+        } else if( rxLen < rxLine.length ){
+          rxLine[rxLen++] = c;
+        }
+      }
+    }
+    int before = issued;
+    int waiting = manual.size();
+    //SEND GCODE
+    sendManual();
+    stream();
+    return handled > 0 || issued != before || manual.size() != waiting;
+  }
+
+  // HANDLE SINGLE RESPONSE LINE
+  void handleResponse( GrblResponse resp ){
+    switch( resp.type ){
+      case RESP_VERSION:
+        // GRBL (re)booted: its buffers are empty, nothing sent is coming back
+        banner = resp.text();
+        interrupt();
+        rx.clear();
+        if(VERBOSE) print("[STARTUP] "+resp.text()+"\n");
+        return;
+      case RESP_STARTUP:
+        if(VERBOSE) print("[STARTUP] "+resp.text()+"\n");
+        return;
+      case RESP_STATUS:
+        if( machine.parse( resp.buf, resp.start, resp.end ) ){
+          session.extractDim( machine );
+          checkPlanner();
+          checkpoint();
+        }
+        watchdog.reportReceived( System.nanoTime() );
+        return;
+      case RESP_ERROR:
+        // Responses come back in send order, so the error belongs to the
+        // oldest line in flight. GRBL consumed the line, release its bytes.
+        int failed = rx.peek();
+        acknowledge();
+        watchdog.kick( System.nanoTime() );
+        lineFailed( failed, resp );
+        return;
+      case RESP_ALARM:
+        print("[ALARM] " + resp.text() +"\n");
+        return;
+      case RESP_MSG:
+      case RESP_FEEDBACK:
+        if(VERBOSE) print("[MSG] "+resp.text()+"\n");
+        return;
+      case RESP_OK:
+        if(VERBOSE) print("[RX] ok\n");
+        if( acknowledge() >= 0 ) completed++;
+        watchdog.kick( System.nanoTime() );
+        return;
+      default:
+        return;
+    }
+  }
+
+  // RELEASE OLDEST LINE IN FLIGHT
+  // Returns its job line, -1 for a manual command or resume prelude
+  int acknowledge(){
+    acks++;
+    if( rx.isEmpty() ) return -1;
+    int tag = rx.peek();
+    long sentAt = rx.peekTime();
+    rx.pop();
+    ackLatency.add( System.nanoTime() - sentAt );
+    lastAcked = max( lastAcked, tag );
+    return tag;
+  }
+
+  // HANDLE REJECTED LINE
+  // i: job line the error belongs to, -1 for a manual command
+  void lineFailed( int i, GrblResponse resp ){
+    if( i < 0 ){
+      print("[ERROR] " + resp.text() +"\n");
+      print("[SENT] " + session.sent + "\n");
+      return;
+    }
+    errors++;
+    lastError = resp.text() + " LINE " + (i+1) + " (" + job.where(i) + "): " + job.text(i);
+    print("[ERROR] " + lastError + "\n");
+
+    int policy = ERROR_POLICY;
+    if( policy == ERROR_RETRY ){
+      retryCount = (i == retryOf) ? retryCount+1 : 1;
+      retryOf = i;
+      // Only a line with nothing sent after it can be resent in order
+      // (always with PIPELINE_DEPTH 1). Lines behind it run before a
+      // resend would, replaying it then would draw out of place.
+      if( !rx.isEmpty() ){
+        print("[RETRY] NOT POSSIBLE, LINES AFTER LINE " + (i+1) + " ALREADY SENT\n");
+      } else if( retryCount <= errorRetries ){
+        print("[RETRY] LINE " + (i+1) + " (" + retryCount + "/" + errorRetries + ")\n");
+        retries.append(i);
+        return;
+      }
+      policy = ERROR_PAUSE;
+    }
+    if( policy == ERROR_PAUSE ){
+      print("[PAUSED] RESUME TO SKIP LINE " + (i+1) + ", RESET TO CANCEL\n");
+      session.paused = true;
+      sendByte( gDoor() );
+    }
+  }
+
+  // CHECK BUFFER ACCOUNTING AGAINST Bf: REPORT
+  // Acks that GRBL never sent would otherwise hold their bytes forever and
+  // stall the stream until the watchdog times out and sends the machine home
+  void checkPlanner(){
+    int lost = planner.update( machine, rx, acks, session.streaming, System.nanoTime() );
+    if( lost == 0 || !PLANNER_SYNC ) return;
+    print("[SYNC] RECOVERED " + lost + " LOST ACKS\n");
+    completed += lost;
+    lastAcked = max( lastAcked, line-1 );
+    rx.clear();
+  }
+
+  // UPDATE JOURNAL CHECKPOINT
+  // The first line that may not have been drawn yet: the line executing
+  // (Ln:) when line numbers are on, otherwise the last acked line minus
+  // the blocks still queued in the planner (every queued line holds at
+  // least one block)
+  void checkpoint(){
+    if( !session.streaming || lastAcked < 0 ) return;
+    int from;
+    if( machine.state == STATE_IDLE && rx.isEmpty() ){
+      from = lastAcked + 1;
+    } else if( LINE_NUMBERS && machine.hasLine ){
+      from = machine.lineNumber - 1;
+    } else if( machine.hasBf ){
+      from = lastAcked + 1 - planner.plannerUsed( machine );
+    } else {
+      from = lastAcked + 1 - (BLOCK_BUFFER_SIZE-1);
+    }
+    from = max(0, min(from, lastAcked+1));
+    journal.checkpoint( job, from );
+    // Keep what the journal and pending retries still read
+    int keep = (journal.active()) ? journal.checkpoint : from;
+    for( int i = 0; i < retries.size(); i++ ) keep = min( keep, retries.get(i) );
+    job.release( keep );
+  }
+
+  // SERIAL SEND
+  // Manual commands share the RX window with the job: they are counted in
+  // flight (tagged -1) so their ok is not taken for a job line's, and wait
+  // for room like job lines do
+  synchronized void send( String cmd ){
+    if( port == null ) return;
+    cmd = cmd.trim().replace(" ","");
+    session.sent = cmd;
+    lastLine = -1;
+    manual.append( cmd );
+    sendManual();
+    watchdog.wake( System.nanoTime() );
+  }
+
+  // WRITE QUEUED MANUAL COMMANDS THAT FIT
+  // Job lines are held back until the queue is empty
+  void sendManual(){
+    long now = System.nanoTime();
+    while( manual.size() > 0 && port != null ){
+      String cmd = manual.get(0);
+      byte[] b = (cmd + "\n").getBytes( java.nio.charset.StandardCharsets.US_ASCII );
+      if( !admits( b.length ) ) return;
+      write( b, 0, b.length );
+      rx.push( b.length, -1, now );
+      manual.remove(0);
+      if( VERBOSE ) print("SENT: " + cmd + '\n');
+    }
+  }
+
+  // SERIAL SEND BYTE
+  // Not synchronized: a feed hold must not wait for the engine to finish a
+  // pass. The byte is written at once if the port is free, otherwise the
+  // writer sends it before its next slice.
+  void sendByte( Byte b ){
+    if( port == null ) return;
+    lane.offer( b, System.nanoTime() );
+    flushRealtime();
+    if(VERBOSE) session.sent = str(char(b));
+  }
+
+  // WRITE PENDING REALTIME BYTES
+  // Skipped if the writer is busy, it drains the lane itself
+  void flushRealtime(){
+    if( lane.isEmpty() || !writer.tryLock() ) return;
+    try{
+      drainRealtime();
+    } finally {
+      writer.unlock();
+    }
+  }
+
+  // Caller holds the writer lock
+  void drainRealtime(){
+    Transport p = port;
+    int n = lane.drain( realtime, System.nanoTime() );
+    if( p != null && n > 0 ) p.write( realtime, 0, n );
+  }
+
+  // WRITE BULK DATA
+  // All line data goes through here, in REALTIME_SLICE pieces with the
+  // realtime lane drained before each one
+  void write( byte[] b, int off, int len ){
+    writer.lock();
+    try{
+      bytesSent += len;
+      Transport p = port;
+      while( len > 0 && p != null ){
+        drainRealtime();
+        int n = Math.min( len, REALTIME_SLICE );
+        p.write( b, off, n );
+        off += n;
+        len -= n;
+      }
+      drainRealtime();
+    } finally {
+      writer.unlock();
+    }
+  }
+
+  // RESET SERIAL STREAM STATUS
+  synchronized void resetStatus(){
+    line = 0;
+    issued = 0;
+    completed = 0;
+    acks = 0;
+    lastLine = -1;
+    lastAcked = -1;
+    rx.untag();
+    retries.clear();
+    retryOf = -1;
+    retryCount = 0;
+  }
+
+  // SERIAL STREAM
+  void stream(){
+    if(port == null || !session.streaming || session.paused || manual.size() > 0) return;
+    if( retries.size() > 0 ){
+      streamBatch();
+      return;
+    }
+
+    while(true){
+      if( !job.ready(line) ){
+        if( line>0 ){
+          print("COMPLETED STREAMING\n");
+          line = -1;
+        } else if ( rx.isEmpty() ) {
+          print("DRAWING FINISHED\n");
+          streamNanos = System.nanoTime() - startedAt;
+          float secs = streamNanos / 1000000000.0;
+          print("STREAMED " + (issued-startedLine) + " LINES IN " + nf(secs,0,1) + " s (" + nf((issued-startedLine)/secs,0,1) + " LINES/s), " + ((PIPELINE_DEPTH > 0) ? "PIPELINE DEPTH " + PIPELINE_DEPTH : "CHARACTER COUNTING") + "\n");
+          print("ACK LATENCY: " + ackLatency.summary() + "\n");
+          journal.finish();
+          finished++;
+          session.streaming = false;
+          resetStatus();
+        }
+        return;
+      }
+      if( job.isBlank(line) ){
+        line++;
+        continue;
+      }
+      else break;
+    }
+
+    streamBatch();
+  }
+
+  // CHECK IF A LINE OF len BYTES MAY BE SENT NOW
+  boolean admits( int len ){
+    if( PIPELINE_DEPTH > 0 ) return rx.size() < min( PIPELINE_DEPTH, rx.lengths.length ) && rx.fits(len);
+    return rx.fits(len);
+  }
+
+  // SERIAL STREAM BATCH
+  // Packs as many queued lines as the flow control admits and writes them
+  // to the port in a single call. The engine loop passes here far more
+  // often than anything changes, so the free count only prints when it did.
+  void streamBatch(){
+    if( VERBOSE && rx.free() != shownFree ){
+      shownFree = rx.free();
+      print( str(shownFree) + " BYTES AVAILABLE\n" );
+    }
+    long now = System.nanoTime();
+    int n = 0;
+    int first = line;
+    // Retried lines go first, new lines only once they are all sent
+    while( retries.size() > 0 ){
+      int r = retries.get(0);
+      int len = streamLength(r);
+      if( !admits(len) || n + len > batch.length ) break;
+      n += encodeLine( r, batch, n );
+      rx.push( len, r, now );
+      retries.remove(0);
+    }
+    while( retries.size() == 0 && job.ready(line) ){
+      int len = streamLength(line);
+      if( len == 0 ){
+        line++;
+        continue;
+      }
+      if( !admits(len) || n + len > batch.length ) break;
+      n += encodeLine( line, batch, n );
+      rx.push( len, line, now );
+      issued++;
+      lastLine = line;
+      line++;
+    }
+    if( n == 0 ) return;
+    write( batch, 0, n );
+    if(VERBOSE) print("SENT "+first+"-"+line+": "+job.text(lastLine)+"\n");
+  }
+
+  // LINE NUMBERS
+  // With LINE_NUMBERS on, job line i is streamed as N<i+1><line> so GRBL
+  // reports it back in the Ln: status field, and Ln - 1 is always a job
+  // line. A line's own N word is replaced, the file's numbering would not
+  // match job lines. System commands cannot carry a line number.
+  boolean tagged( int i ){
+    if( !LINE_NUMBERS || job.isBlank(i) ) return false;
+    return job.first(i) != '$';
+  }
+
+  // LENGTH OF LINE i'S OWN N WORD, 0 if it has none
+  // Leaves the line in numbered
+  int numberWord( int i ){
+    byte c = job.first(i);
+    if( c != 'N' && c != 'n' ) return 0;
+    int len = job.length(i);
+    if( numbered.length < len ) numbered = new byte[len];
+    job.copy( i, numbered, 0 );
+    int k = 1;
+    while( k < len && numbered[k] >= '0' && numbered[k] <= '9' ) k++;
+    return k;
+  }
+
+  // LENGTH OF LINE i AS STREAMED
+  int streamLength( int i ){
+    return tagged(i) ? job.length(i) - numberWord(i) + 1 + digits(i+1) : job.length(i);
+  }
+
+  // COPY LINE i AS STREAMED INTO out AT at
+  // Returns the number of bytes written
+  int encodeLine( int i, byte[] out, int at ){
+    int n = at;
+    if( tagged(i) ){
+      out[n++] = 'N';
+      int v = i+1;
+      int d = digits(v);
+      for( int k = n+d-1; k >= n; k-- ){
+        out[k] = (byte) ('0' + v % 10);
+        v /= 10;
+      }
+      n += d;
+      int skip = numberWord(i);
+      if( skip > 0 ){
+        int len = job.length(i) - skip;
+        System.arraycopy( numbered, skip, out, n, len );
+        return n + len - at;
+      }
+    }
+    n += job.copy( i, out, n );
+    return n - at;
+  }
+
+  int digits( int v ){
+    int d = 1;
+    while( v >= 10 ){
+      v /= 10;
+      d++;
+    }
+    return d;
+  }
+}
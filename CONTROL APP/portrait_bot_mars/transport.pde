@@ -0,0 +1,453 @@
+////////////////////////////////////////////////////////////////////////////////
+// TRANSPORT
+////////////////////////////////////////////////////////////////////////////////
+// Byte link between the stream engine and GRBL. The engine only uses this
+// interface, so the same streaming code runs over the Arduino serial port,
+// a TCP serial bridge, a Linux pty, or an in-memory loopback.
+//
+// Port names:
+//   COM3, /dev/ttyACM0   serial port
+//   tcp://host:port      TCP socket (ser2net, esp-link, socat ...)
+//   pty:/dev/pts/4       Linux pseudo terminal
+//   loopback             in-memory loopback, acks every line at once
+//   sim, sim:100         in-process GRBL simulator, optionally sped up
+//
+// Serial ports and the simulator run at BAUD_RATE unless the name ends in
+// @<baud>, e.g. COM3@250000. GRBL only talks at the BAUD_RATE it was
+// compiled with (config.h), so both ends must be changed together.
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+interface Transport {
+  // Opens the link, returns false if it could not be opened
+  boolean open();
+  void close();
+  boolean isOpen();
+  // Writes b[off .. off+len)
+  void write( byte[] b, int off, int len );
+  // Reads up to len bytes that are already available, never blocks
+  int read( byte[] b, int off, int len );
+  // Number of bytes that can be read without blocking
+  int available();
+  String name();
+}
+
+// CREATE TRANSPORT FROM PORT NAME
+Transport createTransport( String name ){
+  int baud = portBaud( name );
+  name = portBase( name );
+  if( name.startsWith("tcp://") ){
+    String[] hp = name.substring(6).split(":");
+    return new TcpTransport( hp[0], (hp.length > 1) ? int(hp[1]) : 23 );
+  }
+  if( name.startsWith("pty:") ) return new PtyTransport( name.substring(4) );
+  if( name.equals("loopback") ) return createLoopback();
+  if( name.equals("sim") || name.startsWith("sim:") ){
+    return createSimulator( (name.length() > 4) ? float(name.substring(4)) : 1, baud );
+  }
+  return new SerialTransport( this, name, baud );
+}
+
+// BAUD RATE FROM PORT NAME, BAUD_RATE without @<baud>
+int portBaud( String name ){
+  int at = baudSuffix( name );
+  return (at < 0) ? BAUD_RATE : int( name.substring(at+1) );
+}
+
+// PORT NAME WITHOUT @<baud>
+String portBase( String name ){
+  int at = baudSuffix( name );
+  return (at < 0) ? name : name.substring( 0, at );
+}
+
+// POSITION OF THE @ BEFORE A TRAILING BAUD RATE, -1 if there is none
+int baudSuffix( String name ){
+  int at = name.lastIndexOf('@');
+  if( at < 0 || at == name.length()-1 ) return -1;
+  for( int i = at+1; i < name.length(); i++ ){
+    if( !Character.isDigit( name.charAt(i) ) ) return -1;
+  }
+  return at;
+}
+
+// SERIAL PORT
+// Wraps processing.serial.Serial
+class SerialTransport implements Transport {
+  PApplet parent;
+  String portname;
+  int baud;
+  Serial port;
+  byte[][] staging;
+
+  SerialTransport( PApplet parent, String portname, int baud ){
+    this.parent = parent;
+    this.portname = portname;
+    this.baud = baud;
+    staging = new byte[257][];
+  }
+
+  public boolean open(){
+    try{
+      port = new Serial( parent, portname, baud );
+      return true;
+    } catch( Exception e ){
+      port = null;
+      return false;
+    }
+  }
+
+  public void close(){
+    if( port != null ) port.stop();
+    port = null;
+  }
+
+  public boolean isOpen(){
+    return port != null;
+  }
+
+  // Serial.write() only takes whole arrays, so ranges are copied into a
+  // cached staging array of the exact length instead of allocating
+  public void write( byte[] b, int off, int len ){
+    if( port == null || len <= 0 ) return;
+    if( off == 0 && len == b.length ){
+      port.write( b );
+      return;
+    }
+    if( len >= staging.length ){
+      port.write( subset(b, off, len) );
+      return;
+    }
+    if( staging[len] == null ) staging[len] = new byte[len];
+    System.arraycopy( b, off, staging[len], 0, len );
+    port.write( staging[len] );
+  }
+
+  public int read( byte[] b, int off, int len ){
+    if( port == null ) return 0;
+    int total = 0;
+    while( total < len && port.available() > 0 ){
+      b[off + total++] = (byte) port.read();
+    }
+    return total;
+  }
+
+  public int available(){
+    return (port == null) ? 0 : port.available();
+  }
+
+  public String name(){
+    return portname;
+  }
+}
+
+// STREAM TRANSPORT
+// Shared by TCP and pty links that expose plain Java streams
+abstract class StreamTransport implements Transport {
+  InputStream in;
+  OutputStream out;
+
+  public void close(){
+    try{
+      if( in != null ) in.close();
+      if( out != null ) out.close();
+    } catch( IOException e ){
+    }
+    in = null;
+    out = null;
+  }
+
+  public boolean isOpen(){
+    return out != null;
+  }
+
+  public void write( byte[] b, int off, int len ){
+    if( out == null ) return;
+    try{
+      out.write( b, off, len );
+      out.flush();
+    } catch( IOException e ){
+      println("DISCONNECTED: " + name() + " (" + e.getMessage() + ")");
+      close();
+    }
+  }
+
+  public int read( byte[] b, int off, int len ){
+    int n = available();
+    if( n <= 0 ) return 0;
+    try{
+      n = in.read( b, off, min(n, len) );
+      if( n < 0 ){
+        close();
+        return 0;
+      }
+      return n;
+    } catch( IOException e ){
+      println("DISCONNECTED: " + name() + " (" + e.getMessage() + ")");
+      close();
+      return 0;
+    }
+  }
+
+  public int available(){
+    if( in == null ) return 0;
+    try{
+      return in.available();
+    } catch( IOException e ){
+      close();
+      return 0;
+    }
+  }
+}
+
+// TCP SOCKET
+// For serial-over-network bridges
+class TcpTransport extends StreamTransport {
+  String host;
+  int tcpPort;
+  Socket socket;
+
+  TcpTransport( String host, int tcpPort ){
+    this.host = host;
+    this.tcpPort = tcpPort;
+  }
+
+  public boolean open(){
+    try{
+      socket = new Socket();
+      socket.connect( new InetSocketAddress(host, tcpPort), 3000 );
+      socket.setTcpNoDelay(true);
+      in = socket.getInputStream();
+      out = socket.getOutputStream();
+      return true;
+    } catch( IOException e ){
+      close();
+      return false;
+    }
+  }
+
+  public void close(){
+    super.close();
+    try{
+      if( socket != null ) socket.close();
+    } catch( IOException e ){
+    }
+    socket = null;
+  }
+
+  public String name(){
+    return "tcp://" + host + ":" + tcpPort;
+  }
+}
+
+// LINUX PTY
+// Opens a pseudo terminal device, e.g. one end of a socat pty pair. A pty
+// starts out cooked: echo and line editing would mangle GRBL's replies and
+// swallow realtime bytes like 0x18, so it is switched to raw mode with
+// stty once open, and the open fails if that does not work.
+class PtyTransport extends StreamTransport {
+  String path;
+
+  PtyTransport( String path ){
+    this.path = path;
+  }
+
+  public boolean open(){
+    try{
+      in = new FileInputStream( path );
+      out = new FileOutputStream( path );
+      if( rawMode() ) return true;
+    } catch( IOException e ){
+    }
+    close();
+    return false;
+  }
+
+  boolean rawMode(){
+    try{
+      Process p = new ProcessBuilder( "stty", "-F", path, "raw", "-echo" ).redirectErrorStream(true).start();
+      String msg = join( loadStrings( p.getInputStream() ), " " );
+      if( p.waitFor() == 0 ) return true;
+      println("CANNOT SET " + path + " TO RAW MODE: " + msg);
+    } catch( IOException e ){
+      println("CANNOT SET " + path + " TO RAW MODE: " + e.getMessage());
+    } catch( InterruptedException e ){
+      Thread.currentThread().interrupt();
+    }
+    return false;
+  }
+
+  public String name(){
+    return "pty:" + path;
+  }
+}
+
+// BYTE QUEUE
+// Bounded FIFO between two threads, writers wait while it is full
+class ByteQueue {
+  byte[] data;
+  int head, count;
+
+  ByteQueue( int capacity ){
+    data = new byte[capacity];
+  }
+
+  synchronized void put( byte[] b, int off, int len ){
+    for( int i = 0; i < len; i++ ){
+      while( count == data.length ){
+        try{
+          wait();
+        } catch( InterruptedException e ){
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+      data[(head + count) % data.length] = b[off+i];
+      count++;
+    }
+  }
+
+  synchronized int take( byte[] b, int off, int len ){
+    int n = min( len, count );
+    for( int i = 0; i < n; i++ ){
+      b[off+i] = data[head];
+      head = (head + 1) % data.length;
+    }
+    count -= n;
+    if( n > 0 ) notifyAll();
+    return n;
+  }
+
+  synchronized int size(){
+    return count;
+  }
+
+  synchronized void clear(){
+    head = 0;
+    count = 0;
+    notifyAll();
+  }
+}
+
+// IN-MEMORY LOOPBACK
+// Writes on one end are read on the other end. Useful for benchmarking the
+// stream engine with no hardware attached.
+class LoopbackTransport implements Transport {
+  ByteQueue inbox, outbox;
+  LoopbackTransport peer;
+  boolean opened;
+
+  // Creates both ends of a loopback pair, this end is the host side
+  LoopbackTransport(){
+    this( new ByteQueue(1 << 16), new ByteQueue(1 << 16) );
+    peer = new LoopbackTransport( outbox, inbox );
+    peer.peer = this;
+  }
+
+  LoopbackTransport( ByteQueue inbox, ByteQueue outbox ){
+    this.inbox = inbox;
+    this.outbox = outbox;
+  }
+
+  // Device side of the pair
+  LoopbackTransport peer(){
+    return peer;
+  }
+
+  public boolean open(){
+    opened = true;
+    return true;
+  }
+
+  // Closes both ends, whatever runs on the other end stops
+  public void close(){
+    opened = false;
+    if( peer != null && peer.opened ) peer.close();
+  }
+
+  public boolean isOpen(){
+    return opened;
+  }
+
+  public void write( byte[] b, int off, int len ){
+    if( opened ) outbox.put( b, off, len );
+  }
+
+  public int read( byte[] b, int off, int len ){
+    return inbox.take( b, off, len );
+  }
+
+  public int available(){
+    return inbox.size();
+  }
+
+  public String name(){
+    return "loopback";
+  }
+}
+
+// CREATE LOOPBACK PORT
+// Returns the host end, a responder answers on the other end
+Transport createLoopback(){
+  LoopbackTransport host = new LoopbackTransport();
+  new LoopbackResponder( host.peer() ).start();
+  return host;
+}
+
+// LOOPBACK RESPONDER
+// Answers on the device end of a loopback as fast as it can: ok for every
+// line, an Idle status report for ?, the banner after a soft reset. Nothing
+// is executed, so a stream runs as fast as the engine and the link allow,
+// for benchmarks and soak tests. Use "sim" for a machine that takes time
+// to draw.
+class LoopbackResponder implements Runnable {
+  LoopbackTransport dev;
+  Thread thread;
+  byte[] inbound;
+  int lines;
+
+  LoopbackResponder( LoopbackTransport dev ){
+    this.dev = dev;
+    inbound = new byte[4096];
+  }
+
+  void start(){
+    dev.open();
+    thread = new Thread( this, "loopback-responder" );
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public void run(){
+    banner();
+    while( dev.isOpen() ){
+      int n = dev.read( inbound, 0, inbound.length );
+      if( n == 0 ){
+        java.util.concurrent.locks.LockSupport.parkNanos( 100000 );
+        continue;
+      }
+      for( int i = 0; i < n; i++ ){
+        int c = inbound[i] & 0xff;
+        if( c == '\n' ){
+          lines++;
+          reply( "ok" );
+        } else if( c == '?' ){
+          reply( "<Idle|MPos:0.000,0.000,0.000|FS:0,0>" );
+        } else if( c == 0x18 ){
+          banner();
+        }
+      }
+    }
+  }
+
+  void banner(){
+    reply( "\r\nGrbl 1.1f ['$' for help]" );
+  }
+
+  void reply( String s ){
+    byte[] b = (s + "\r\n").getBytes( java.nio.charset.StandardCharsets.US_ASCII );
+    dev.write( b, 0, b.length );
+  }
+}
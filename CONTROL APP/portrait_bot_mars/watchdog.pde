@@ -0,0 +1,102 @@
+////////////////////////////////////////////////////////////////////////////////
+// WATCHDOG
+////////////////////////////////////////////////////////////////////////////////
+// Wall-clock scheduler run by the stream engine thread. Status polling, the
+// idle spray-off safety and the stream stall timeout all use System.nanoTime()
+// deadlines, so they keep their timing however slowly the UI is rendering.
+// Status polling adapts to the machine: fast while it moves, a slow
+// heartbeat while it sits idle between jobs.
+
+class Watchdog {
+  StreamEngine engine;
+  long nextReport;
+  long stallStart;
+  boolean sprayCut;
+  // STATUS ROUND TRIP
+  long reportSent;
+  boolean reportPending;
+  float rttLast, rttAvg;
+  int interval;
+
+  Watchdog( StreamEngine e ){
+    engine = e;
+    kick( System.nanoTime() );
+  }
+
+  // RESTART STALL TIMER
+  // Called whenever GRBL acknowledges a line
+  void kick( long now ){
+    stallStart = now;
+    sprayCut = false;
+  }
+
+  // STATUS REPORT RECEIVED
+  void reportReceived( long now ){
+    if( !reportPending ) return;
+    reportPending = false;
+    rttLast = (now - reportSent) / 1000000.0;
+    rttAvg = (rttAvg == 0) ? rttLast : rttAvg*0.9 + rttLast*0.1;
+    // Poll again sooner if the machine just started moving
+    int next = pollInterval();
+    if( next < interval ){
+      nextReport = Math.min( nextReport, reportSent + next * 1000000L );
+      interval = next;
+    }
+  }
+
+  // POLL SOON
+  // Called when a command is sent, so a jog from idle is tracked at once
+  void wake( long now ){
+    nextReport = Math.min( nextReport, now + reportActive * 1000000L );
+  }
+
+  // POLL INTERVAL FOR CURRENT MACHINE STATE
+  int pollInterval(){
+    switch( engine.machine.state ){
+      case STATE_RUN:
+      case STATE_JOG:
+      case STATE_HOME:
+        return reportActive;
+      case STATE_IDLE:
+        return (engine.session.streaming) ? reportActive : reportIdle;
+      default:
+        return reportHold;
+    }
+  }
+
+  // RUN DUE TASKS
+  void tick( long now ){
+    if( !engine.isAttached() ) return;
+
+    // REALTIME STATUS REPORTING
+    // A report still in flight is given up on after reportIdle
+    if( now - nextReport >= 0 && (!reportPending || now - reportSent > reportIdle * 1000000L) ){
+      interval = pollInterval();
+      engine.sendByte( report() );
+      reportSent = now;
+      reportPending = true;
+      nextReport = now + interval * 1000000L;
+    }
+
+    // TIMEOUT IF SYSTEM HANGS
+    // Only counts while streaming with the machine sitting idle, not while
+    // paused for the operator
+    if( !(engine.session.streaming && engine.session.idle) || engine.session.paused ){
+      kick( now );
+      return;
+    }
+    long stalled = now - stallStart;
+    // FIRST SHUTS OFF SPRAY
+    if( engine.session.spraying && !sprayCut && stalled > sprayOffDelay * 1000000L ){
+      engine.send( gSpray(false) );
+      sprayCut = true;
+    }
+    // THEN CANCELS STREAM AND GOES HOME
+    if( stalled > stallTimeout * 1000000L ){
+      print("TIMED OUT, GOING HOME\n");
+      engine.cancel();
+      engine.send( home() );
+      kick( now );
+    }
+  }
+}